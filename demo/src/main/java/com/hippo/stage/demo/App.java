@@ -21,6 +21,7 @@ package com.hippo.stage.demo;
  */
 
 import android.app.Application;
+import com.hippo.stage.Director;
 import com.squareup.leakcanary.LeakCanary;
 import com.squareup.leakcanary.RefWatcher;
 
@@ -35,6 +36,8 @@ public class App extends Application {
       return;
     }
     refWatcher = LeakCanary.install(this);
+    // Generated by stage-compiler for @RegisterScene scenes
+    Director.registerSceneFactory(new DemoSceneFactory());
   }
 
   public RefWatcher getRefWatcher() {
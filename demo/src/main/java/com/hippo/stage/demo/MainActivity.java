@@ -16,15 +16,22 @@
 
 package com.hippo.stage.demo;
 
+import android.content.Intent;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.support.annotation.RequiresApi;
 import android.support.v4.view.animation.FastOutSlowInInterpolator;
 import android.support.v7.app.AppCompatActivity;
+import android.util.Log;
+import android.view.Choreographer;
 import android.view.ViewGroup;
 import com.hippo.stage.Curtain;
 import com.hippo.stage.CurtainSuppler;
 import com.hippo.stage.Director;
+import com.hippo.stage.Scene;
 import com.hippo.stage.SceneInfo;
 import com.hippo.stage.Stage;
 import com.hippo.stage.curtain.NoOpCurtain;
@@ -34,16 +41,53 @@ import java.util.List;
 
 public class MainActivity extends AppCompatActivity implements CurtainSuppler {
 
+  private static final String LOG_TAG = MainActivity.class.getSimpleName();
+
+  // Director.hire() waits a headless fragment, hireWithoutFragment() doesn't
+  private static final boolean HIRE_WITHOUT_FRAGMENT = true;
+  // Logs the time from onCreate() to the first scene started
+  private static final boolean LOG_HIRE_TIME = false;
+
+  // Hardware layers for curtains, switch it to compare frame time of transitions
+  private static final boolean CURTAIN_HARDWARE_LAYER = true;
+  // Logs the frame time while curtains are running
+  private static final boolean LOG_CURTAIN_FRAME_TIME = false;
+  // Logs the time of creating scenes by the generated factory and by reflection
+  private static final boolean LOG_SCENE_FACTORY_TIME = false;
+
   private Director director;
+  private CurtainFrameLogger curtainFrameLogger;
 
   @Override
   protected void onCreate(Bundle savedInstanceState) {
+    final long startTime = SystemClock.uptimeMillis();
+
     super.onCreate(savedInstanceState);
     setContentView(R.layout.activity_main);
 
-    director = Director.hire(this, savedInstanceState);
+    if (HIRE_WITHOUT_FRAGMENT) {
+      director = Director.hireWithoutFragment(
+          this, savedInstanceState, getLastCustomNonConfigurationInstance());
+    } else {
+      director = Director.hire(this, savedInstanceState);
+    }
     director.setCurtainSuppler(this);
 
+    if (LOG_SCENE_FACTORY_TIME && savedInstanceState == null) {
+      SceneFactoryBenchmark.run();
+    }
+
+    if (LOG_HIRE_TIME) {
+      director.addLifecycleListener(new Scene.LifecycleListener() {
+        @Override
+        public void onStart(@NonNull Scene scene) {
+          Log.d(LOG_TAG, "First scene started in " + (SystemClock.uptimeMillis() - startTime)
+              + "ms, hire without fragment: " + HIRE_WITHOUT_FRAGMENT);
+          director.removeLifecycleListener(this);
+        }
+      }, Scene.LifecycleListener.EVENT_START);
+    }
+
     ViewGroup container = (ViewGroup) findViewById(R.id.stage_layout);
 
     boolean needInitialization = !director.contains(container.getId());
@@ -53,6 +97,28 @@ public class MainActivity extends AppCompatActivity implements CurtainSuppler {
     }
   }
 
+  @Override
+  public Object onRetainCustomNonConfigurationInstance() {
+    return HIRE_WITHOUT_FRAGMENT ? director : null;
+  }
+
+  @Override
+  protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+    super.onActivityResult(requestCode, resultCode, data);
+    if (HIRE_WITHOUT_FRAGMENT) {
+      director.dispatchActivityResult(requestCode, resultCode, data);
+    }
+  }
+
+  @Override
+  public void onRequestPermissionsResult(
+      int requestCode, @NonNull String[] permissions, @NonNull int[] grantResults) {
+    super.onRequestPermissionsResult(requestCode, permissions, grantResults);
+    if (HIRE_WITHOUT_FRAGMENT) {
+      director.dispatchRequestPermissionsResult(requestCode, permissions, grantResults);
+    }
+  }
+
   @Override
   protected void onDestroy() {
     super.onDestroy();
@@ -74,9 +140,64 @@ public class MainActivity extends AppCompatActivity implements CurtainSuppler {
       ShiftCurtain curtain = new ShiftCurtain();
       curtain.setDuration(150L);
       curtain.setInterpolator(new FastOutSlowInInterpolator());
+      curtain.setSnapshotEnabled(true);
+      curtain.setHardwareLayerEnabled(CURTAIN_HARDWARE_LAYER);
+      if (LOG_CURTAIN_FRAME_TIME
+          && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+        if (curtainFrameLogger == null) {
+          curtainFrameLogger = new CurtainFrameLogger();
+        }
+        curtainFrameLogger.start(upper.scene.getClass().getSimpleName());
+      }
       return curtain;
     } else {
       return NoOpCurtain.INSTANCE;
     }
   }
+
+  // Logs the frame time while curtains are running, for hardware layer comparison
+  @RequiresApi(Build.VERSION_CODES.JELLY_BEAN)
+  private class CurtainFrameLogger implements Choreographer.FrameCallback {
+
+    private boolean running;
+    private String name;
+    private long lastFrameTime;
+    private int frames;
+    private long totalTime;
+    private long maxTime;
+
+    void start(String name) {
+      this.name = name;
+      if (!running) {
+        running = true;
+        lastFrameTime = 0;
+        frames = 0;
+        totalTime = 0;
+        maxTime = 0;
+        Choreographer.getInstance().postFrameCallback(this);
+      }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+      if (lastFrameTime != 0) {
+        long time = frameTimeNanos - lastFrameTime;
+        frames++;
+        totalTime += time;
+        maxTime = Math.max(maxTime, time);
+      }
+      lastFrameTime = frameTimeNanos;
+
+      if (director.hasCurtainRunning()) {
+        Choreographer.getInstance().postFrameCallback(this);
+      } else {
+        running = false;
+        if (frames > 0) {
+          Log.d(LOG_TAG, "Curtain of " + name + ": " + frames + " frames, average "
+              + (totalTime / frames / 1000) + "us, max " + (maxTime / 1000)
+              + "us, hardware layer: " + CURTAIN_HARDWARE_LAYER);
+        }
+      }
+    }
+  }
 }
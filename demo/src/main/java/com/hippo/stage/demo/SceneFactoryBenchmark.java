@@ -0,0 +1,86 @@
+/*
+ * Copyright 2017 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.stage.demo;
+
+import android.util.Log;
+import com.hippo.stage.Scene;
+import com.hippo.stage.SceneFactory;
+import com.hippo.stage.demo.scene.ChildDirectorScene;
+import com.hippo.stage.demo.scene.DialogListScene;
+import com.hippo.stage.demo.scene.HomeScene;
+import com.hippo.stage.demo.scene.PagerScene;
+import com.hippo.stage.demo.scene.PushPopScene;
+import com.hippo.stage.demo.scene.ThemedScene;
+
+/**
+ * Logs the time of creating scenes by the generated {@link SceneFactory}
+ * and by reflection, the two ways to create scenes while restoring.
+ */
+final class SceneFactoryBenchmark {
+  private SceneFactoryBenchmark() {}
+
+  private static final String LOG_TAG = SceneFactoryBenchmark.class.getSimpleName();
+
+  // Like restoring a stack of 200 scenes
+  private static final int SCENE_COUNT = 200;
+  private static final int ROUNDS = 5;
+
+  private static final String[] CLASS_NAMES = {
+      HomeScene.class.getName(),
+      PushPopScene.class.getName(),
+      DialogListScene.class.getName(),
+      ChildDirectorScene.class.getName(),
+      PagerScene.class.getName(),
+      ThemedScene.class.getName(),
+  };
+
+  static void run() {
+    SceneFactory factory = new DemoSceneFactory();
+    // The library caches loaded classes, so does it
+    Class<?>[] classes = new Class<?>[CLASS_NAMES.length];
+    try {
+      for (int i = 0; i < CLASS_NAMES.length; i++) {
+        classes[i] = Class.forName(CLASS_NAMES[i]);
+      }
+    } catch (ClassNotFoundException e) {
+      throw new IllegalStateException(e);
+    }
+
+    // The first round warms up
+    for (int round = 0; round <= ROUNDS; round++) {
+      long start = System.nanoTime();
+      for (int i = 0; i < SCENE_COUNT; i++) {
+        String className = CLASS_NAMES[i % CLASS_NAMES.length];
+        if (factory.newScene(className) == null) {
+          throw new IllegalStateException("Not registered: " + className);
+        }
+      }
+      long factoryTime = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      for (int i = 0; i < SCENE_COUNT; i++) {
+        Utils.<Scene>newInstance(classes[i % classes.length]);
+      }
+      long reflectionTime = System.nanoTime() - start;
+
+      if (round > 0) {
+        Log.d(LOG_TAG, SCENE_COUNT + " scenes, factory " + (factoryTime / 1000)
+            + "us, reflection " + (reflectionTime / 1000) + "us");
+      }
+    }
+  }
+}
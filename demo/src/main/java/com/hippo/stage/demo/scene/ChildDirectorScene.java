@@ -25,9 +25,11 @@ import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import com.hippo.stage.Director;
+import com.hippo.stage.RegisterScene;
 import com.hippo.stage.Stage;
 import com.hippo.stage.demo.R;
 
+@RegisterScene
 public class ChildDirectorScene extends DebugScene {
 
   @NonNull
@@ -27,9 +27,11 @@ import android.view.ViewGroup;
 import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
 import android.widget.ListView;
+import com.hippo.stage.RegisterScene;
 import com.hippo.stage.demo.R;
 import com.hippo.stage.dialog.DialogScene;
 
+@RegisterScene
 public class DialogListScene extends DebugScene {
 
   private static final String[] ITEMS = {
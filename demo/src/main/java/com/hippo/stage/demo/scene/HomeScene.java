@@ -28,11 +28,13 @@ import android.view.ViewGroup;
 import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
 import android.widget.ListView;
+import com.hippo.stage.RegisterScene;
 import com.hippo.stage.Scene;
 import com.hippo.stage.demo.R;
 import com.hippo.stage.demo.Utils;
 import com.hippo.stage.pager.StagePagerAdapter;
 
+@RegisterScene
 public class HomeScene extends DebugScene {
 
   private static final String[] ITEMS = {
@@ -27,10 +27,12 @@ import android.support.v4.view.ViewPager;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import com.hippo.stage.RegisterScene;
 import com.hippo.stage.Stage;
 import com.hippo.stage.demo.R;
 import com.hippo.stage.pager.StagePagerAdapter;
 
+@RegisterScene
 public class PagerScene extends DebugScene {
 
   public static final String KEY_MODE = "com.hippo.stage.demo.scene.PagerScene.MODE";
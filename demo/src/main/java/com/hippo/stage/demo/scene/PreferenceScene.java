@@ -24,8 +24,10 @@ import android.app.Fragment;
 import android.os.Bundle;
 import android.preference.PreferenceFragment;
 import android.support.annotation.NonNull;
+import com.hippo.stage.RegisterScene;
 import com.hippo.stage.demo.R;
 
+@RegisterScene
 public class PreferenceScene extends DebugFragmentScene {
 
   private static int ID = 0x7fff0000;
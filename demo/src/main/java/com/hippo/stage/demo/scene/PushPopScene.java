@@ -26,9 +26,11 @@ import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
+import com.hippo.stage.RegisterScene;
 import com.hippo.stage.Scene;
 import com.hippo.stage.demo.R;
 
+@RegisterScene
 public class PushPopScene extends DebugScene {
 
   private static final String KEY_INDEX = "PushPopScene:index";
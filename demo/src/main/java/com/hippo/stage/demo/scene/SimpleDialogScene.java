@@ -25,7 +25,9 @@ import android.view.LayoutInflater;
 import android.view.ViewGroup;
 import com.hippo.android.dialog.base.DialogView;
 import com.hippo.android.dialog.base.DialogViewBuilder;
+import com.hippo.stage.RegisterScene;
 
+@RegisterScene
 public class SimpleDialogScene extends DebugDialogScene {
 
   private static final String TITLE = "李凭箜篌引";
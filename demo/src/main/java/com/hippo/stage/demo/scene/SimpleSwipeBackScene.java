@@ -25,8 +25,10 @@ import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
+import com.hippo.stage.RegisterScene;
 import com.hippo.stage.demo.R;
 
+@RegisterScene
 public class SimpleSwipeBackScene extends SwipeBackScene {
 
   private static final String MESSAGE = "初，郑武公娶于申，曰武姜，生庄公及共叔段。庄公寤生，惊姜氏，故名曰寤生，遂恶之。爱共叔段，欲立之。亟请于武公，公弗许。\n"
@@ -28,8 +28,10 @@ import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ImageView;
+import com.hippo.stage.RegisterScene;
 import com.hippo.stage.demo.R;
 
+@RegisterScene
 public class StartActivityForResultScene extends DebugScene {
 
   private static final int REQUEST_CODE = 123;
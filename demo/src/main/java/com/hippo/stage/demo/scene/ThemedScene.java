@@ -24,8 +24,10 @@ import android.support.annotation.NonNull;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import com.hippo.stage.RegisterScene;
 import com.hippo.stage.demo.R;
 
+@RegisterScene
 public class ThemedScene extends DebugScene {
 
   @NonNull
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2017 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.stage.compiler;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * Generates a {@code SceneFactory} for {@code RegisterScene} annotated scenes.
+ * The factory creates scenes by constructor calls instead of reflection.
+ */
+public class SceneFactoryProcessor extends AbstractProcessor {
+
+  static final String OPTION_SCENE_FACTORY = "stage.sceneFactory";
+
+  private static final String DEFAULT_SCENE_FACTORY =
+      "com.hippo.stage.generated.StageSceneFactory";
+
+  private static final String REGISTER_SCENE = "com.hippo.stage.RegisterScene";
+  private static final String SCENE = "com.hippo.stage.Scene";
+  private static final String SCENE_FACTORY = "com.hippo.stage.SceneFactory";
+
+  private Elements elements;
+  private Types types;
+  private Filer filer;
+  private Messager messager;
+
+  // Binary name to canonical name, sorted to keep the output stable
+  private final Map<String, String> scenes = new TreeMap<>();
+  private final List<Element> originatingElements = new ArrayList<>();
+  private boolean isGenerated;
+
+  @Override
+  public synchronized void init(ProcessingEnvironment processingEnv) {
+    super.init(processingEnv);
+    elements = processingEnv.getElementUtils();
+    types = processingEnv.getTypeUtils();
+    filer = processingEnv.getFiler();
+    messager = processingEnv.getMessager();
+  }
+
+  @Override
+  public Set<String> getSupportedAnnotationTypes() {
+    return Collections.singleton(REGISTER_SCENE);
+  }
+
+  @Override
+  public Set<String> getSupportedOptions() {
+    return Collections.singleton(OPTION_SCENE_FACTORY);
+  }
+
+  @Override
+  public SourceVersion getSupportedSourceVersion() {
+    return SourceVersion.latestSupported();
+  }
+
+  @Override
+  public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+    TypeElement annotation = elements.getTypeElement(REGISTER_SCENE);
+    if (annotation != null) {
+      for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+        if (isGenerated) {
+          // The factory can't be changed after the round it's created in
+          messager.printMessage(Diagnostic.Kind.WARNING, "@RegisterScene class generated"
+              + " after the scene factory isn't registered, it's created by reflection", element);
+        } else if (check(element)) {
+          TypeElement type = (TypeElement) element;
+          scenes.put(elements.getBinaryName(type).toString(), type.getQualifiedName().toString());
+          originatingElements.add(type);
+        }
+      }
+    }
+
+    // Generated in the first round which finds scenes, so the factory is compiled with them
+    if (!isGenerated && !scenes.isEmpty()) {
+      isGenerated = true;
+      generate();
+    }
+    return true;
+  }
+
+  private boolean check(Element element) {
+    if (element.getKind() != ElementKind.CLASS) {
+      error(element, "@RegisterScene can only be applied to classes");
+      return false;
+    }
+    TypeElement type = (TypeElement) element;
+    Set<Modifier> modifiers = type.getModifiers();
+    if (!modifiers.contains(Modifier.PUBLIC) || modifiers.contains(Modifier.ABSTRACT)) {
+      error(element, "@RegisterScene class must be public and non-abstract");
+      return false;
+    }
+    if (type.getNestingKind() == NestingKind.MEMBER && !modifiers.contains(Modifier.STATIC)) {
+      error(element, "@RegisterScene nested class must be static");
+      return false;
+    }
+    // The factory must be able to access it from another package
+    for (Element enclosing = type.getEnclosingElement(); enclosing instanceof TypeElement;
+        enclosing = enclosing.getEnclosingElement()) {
+      if (!enclosing.getModifiers().contains(Modifier.PUBLIC)) {
+        error(element, "@RegisterScene class must be enclosed in public classes");
+        return false;
+      }
+    }
+    TypeElement scene = elements.getTypeElement(SCENE);
+    if (scene == null || !types.isSubtype(type.asType(), scene.asType())) {
+      error(element, "@RegisterScene class must extend " + SCENE);
+      return false;
+    }
+    boolean hasConstructor = false;
+    for (ExecutableElement constructor
+        : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+      if (constructor.getParameters().isEmpty()
+          && constructor.getModifiers().contains(Modifier.PUBLIC)) {
+        hasConstructor = true;
+        break;
+      }
+    }
+    if (!hasConstructor) {
+      error(element, "@RegisterScene class must have a public constructor with no arguments");
+      return false;
+    }
+    return true;
+  }
+
+  private void generate() {
+    String className = processingEnv.getOptions().get(OPTION_SCENE_FACTORY);
+    if (className == null || className.isEmpty()) {
+      className = DEFAULT_SCENE_FACTORY;
+    }
+    int dot = className.lastIndexOf('.');
+    String packageName = dot >= 0 ? className.substring(0, dot) : "";
+    String simpleName = className.substring(dot + 1);
+
+    StringBuilder sb = new StringBuilder();
+    sb.append("// Generated by ").append(getClass().getName()).append(". Do not modify!\n");
+    if (!packageName.isEmpty()) {
+      sb.append("package ").append(packageName).append(";\n\n");
+    }
+    sb.append("public final class ").append(simpleName)
+        .append(" implements ").append(SCENE_FACTORY).append(" {\n\n");
+    sb.append("  @Override\n");
+    sb.append("  public ").append(SCENE).append(" newScene(String className) {\n");
+    sb.append("    switch (className) {\n");
+    for (Map.Entry<String, String> entry : scenes.entrySet()) {
+      sb.append("      case \"").append(entry.getKey()).append("\":\n");
+      sb.append("        return new ").append(entry.getValue()).append("();\n");
+    }
+    sb.append("      default:\n");
+    sb.append("        return null;\n");
+    sb.append("    }\n");
+    sb.append("  }\n");
+    sb.append("}\n");
+
+    try {
+      JavaFileObject file = filer.createSourceFile(className,
+          originatingElements.toArray(new Element[originatingElements.size()]));
+      Writer writer = file.openWriter();
+      try {
+        writer.write(sb.toString());
+      } finally {
+        writer.close();
+      }
+    } catch (IOException e) {
+      messager.printMessage(Diagnostic.Kind.ERROR, "Can't generate " + className + ": " + e);
+    }
+  }
+
+  private void error(Element element, String message) {
+    messager.printMessage(Diagnostic.Kind.ERROR, message, element);
+  }
+}
@@ -0,0 +1,393 @@
+/*
+ * Copyright 2017 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.stage.compiler;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * Generates a {@code SceneStateBinder} for each scene with {@code SceneState} fields.
+ * The fields are written to a {@code Parcel} in declaration order.
+ */
+public class SceneStateProcessor extends AbstractProcessor {
+
+  private static final String SCENE_STATE = "com.hippo.stage.SceneState";
+  private static final String SCENE = "com.hippo.stage.Scene";
+  private static final String SCENE_STATE_BINDER = "com.hippo.stage.SceneStateBinder";
+  private static final String PARCEL = "android.os.Parcel";
+  private static final String BUNDLE = "android.os.Bundle";
+  private static final String PARCELABLE = "android.os.Parcelable";
+  private static final String SERIALIZABLE = "java.io.Serializable";
+
+  // Must be the same as SceneStates.BINDER_SUFFIX
+  private static final String BINDER_SUFFIX = "_StateBinder";
+
+  private Elements elements;
+  private Types types;
+  private Filer filer;
+  private Messager messager;
+
+  @Override
+  public synchronized void init(ProcessingEnvironment processingEnv) {
+    super.init(processingEnv);
+    elements = processingEnv.getElementUtils();
+    types = processingEnv.getTypeUtils();
+    filer = processingEnv.getFiler();
+    messager = processingEnv.getMessager();
+  }
+
+  @Override
+  public Set<String> getSupportedAnnotationTypes() {
+    return Collections.singleton(SCENE_STATE);
+  }
+
+  @Override
+  public SourceVersion getSupportedSourceVersion() {
+    return SourceVersion.latestSupported();
+  }
+
+  @Override
+  public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+    TypeElement annotation = elements.getTypeElement(SCENE_STATE);
+    if (annotation == null) {
+      return false;
+    }
+
+    // Keep declaration order of fields in each scene
+    Map<TypeElement, List<VariableElement>> scenes = new LinkedHashMap<>();
+    for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+      if (!check(element)) {
+        continue;
+      }
+      TypeElement scene = (TypeElement) element.getEnclosingElement();
+      List<VariableElement> fields = scenes.get(scene);
+      if (fields == null) {
+        fields = new ArrayList<>();
+        scenes.put(scene, fields);
+      }
+      fields.add((VariableElement) element);
+    }
+
+    for (Map.Entry<TypeElement, List<VariableElement>> entry : scenes.entrySet()) {
+      generate(entry.getKey(), entry.getValue());
+    }
+    return true;
+  }
+
+  private boolean check(Element element) {
+    if (element.getKind() != ElementKind.FIELD) {
+      error(element, "@SceneState can only be applied to fields");
+      return false;
+    }
+    Set<Modifier> modifiers = element.getModifiers();
+    if (modifiers.contains(Modifier.PRIVATE)
+        || modifiers.contains(Modifier.FINAL)
+        || modifiers.contains(Modifier.STATIC)) {
+      error(element, "@SceneState field must be non-private, non-final and non-static");
+      return false;
+    }
+    Element enclosing = element.getEnclosingElement();
+    TypeElement scene = elements.getTypeElement(SCENE);
+    if (scene == null || !types.isSubtype(enclosing.asType(), types.erasure(scene.asType()))) {
+      error(element, "@SceneState field must be in a subclass of " + SCENE);
+      return false;
+    }
+    for (Element e = enclosing; e.getKind().isClass(); e = e.getEnclosingElement()) {
+      if (e.getModifiers().contains(Modifier.PRIVATE)) {
+        error(element, "@SceneState field can't be in a private class");
+        return false;
+      }
+    }
+    if (!((TypeElement) enclosing).getTypeParameters().isEmpty()) {
+      error(element, "@SceneState field can't be in a generic class");
+      return false;
+    }
+    if (getWriter(element.asType()) == null) {
+      error(element, "Unsupported @SceneState field type: " + element.asType());
+      return false;
+    }
+    return true;
+  }
+
+  private boolean isView(Element field) {
+    for (AnnotationMirror mirror : field.getAnnotationMirrors()) {
+      TypeElement type = (TypeElement) mirror.getAnnotationType().asElement();
+      if (!type.getQualifiedName().contentEquals(SCENE_STATE)) {
+        continue;
+      }
+      for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry
+          : mirror.getElementValues().entrySet()) {
+        if (entry.getKey().getSimpleName().contentEquals("view")) {
+          return (Boolean) entry.getValue().getValue();
+        }
+      }
+    }
+    return false;
+  }
+
+  private boolean isSubtype(TypeMirror type, String className) {
+    TypeElement element = elements.getTypeElement(className);
+    return element != null && types.isAssignable(type, element.asType());
+  }
+
+  // Returns the statement to write the value to "out", or null if it's not supported
+  private String getWriter(TypeMirror type) {
+    switch (type.getKind()) {
+      case BOOLEAN:
+        return "out.writeInt(%s ? 1 : 0)";
+      case BYTE:
+        return "out.writeByte(%s)";
+      case CHAR:
+      case SHORT:
+      case INT:
+        return "out.writeInt(%s)";
+      case LONG:
+        return "out.writeLong(%s)";
+      case FLOAT:
+        return "out.writeFloat(%s)";
+      case DOUBLE:
+        return "out.writeDouble(%s)";
+      case ARRAY:
+        return getArrayWriter(((ArrayType) type).getComponentType());
+      case DECLARED:
+        if (isSubtype(type, String.class.getName())) {
+          return "out.writeString(%s)";
+        } else if (isSubtype(type, BUNDLE)) {
+          return "out.writeBundle(%s)";
+        } else if (isSubtype(type, PARCELABLE)) {
+          return "out.writeParcelable(%s, 0)";
+        } else if (isSubtype(type, SERIALIZABLE)) {
+          return "out.writeSerializable(%s)";
+        }
+        return null;
+      default:
+        return null;
+    }
+  }
+
+  private String getArrayWriter(TypeMirror component) {
+    switch (component.getKind()) {
+      case BOOLEAN:
+        return "out.writeBooleanArray(%s)";
+      case BYTE:
+        return "out.writeByteArray(%s)";
+      case CHAR:
+        return "out.writeCharArray(%s)";
+      case INT:
+        return "out.writeIntArray(%s)";
+      case LONG:
+        return "out.writeLongArray(%s)";
+      case FLOAT:
+        return "out.writeFloatArray(%s)";
+      case DOUBLE:
+        return "out.writeDoubleArray(%s)";
+      case DECLARED:
+        if (types.isSameType(component, elements.getTypeElement(String.class.getName()).asType())) {
+          return "out.writeStringArray(%s)";
+        }
+        return null;
+      default:
+        return null;
+    }
+  }
+
+  // Returns the expression to read the value from "in"
+  private String getReader(TypeMirror type) {
+    switch (type.getKind()) {
+      case BOOLEAN:
+        return "in.readInt() != 0";
+      case BYTE:
+        return "in.readByte()";
+      case CHAR:
+        return "(char) in.readInt()";
+      case SHORT:
+        return "(short) in.readInt()";
+      case INT:
+        return "in.readInt()";
+      case LONG:
+        return "in.readLong()";
+      case FLOAT:
+        return "in.readFloat()";
+      case DOUBLE:
+        return "in.readDouble()";
+      case ARRAY:
+        return getArrayReader(((ArrayType) type).getComponentType());
+      default:
+        // Cast to the full type, the generic one is unchecked
+        String typeName = type.toString();
+        if (isSubtype(type, String.class.getName())) {
+          return "in.readString()";
+        } else if (isSubtype(type, BUNDLE)) {
+          return "in.readBundle(loader)";
+        } else if (isSubtype(type, PARCELABLE)) {
+          return "(" + typeName + ") in.readParcelable(loader)";
+        } else {
+          return "(" + typeName + ") in.readSerializable()";
+        }
+    }
+  }
+
+  private String getArrayReader(TypeMirror component) {
+    switch (component.getKind()) {
+      case BOOLEAN:
+        return "in.createBooleanArray()";
+      case BYTE:
+        return "in.createByteArray()";
+      case CHAR:
+        return "in.createCharArray()";
+      case INT:
+        return "in.createIntArray()";
+      case LONG:
+        return "in.createLongArray()";
+      case FLOAT:
+        return "in.createFloatArray()";
+      case DOUBLE:
+        return "in.createDoubleArray()";
+      default:
+        return "in.createStringArray()";
+    }
+  }
+
+  private void generate(TypeElement scene, List<VariableElement> fields) {
+    PackageElement packageElement = elements.getPackageOf(scene);
+    String packageName = packageElement.isUnnamed()
+        ? "" : packageElement.getQualifiedName().toString();
+    String binaryName = elements.getBinaryName(scene).toString();
+    String simpleName = binaryName.substring(packageName.isEmpty() ? 0 : packageName.length() + 1)
+        .replace('$', '_') + BINDER_SUFFIX;
+    String sceneName = scene.getQualifiedName().toString();
+
+    List<VariableElement> stateFields = new ArrayList<>();
+    List<VariableElement> viewStateFields = new ArrayList<>();
+    for (VariableElement field : fields) {
+      if (isView(field)) {
+        viewStateFields.add(field);
+      } else {
+        stateFields.add(field);
+      }
+    }
+
+    StringBuilder sb = new StringBuilder();
+    sb.append("// Generated by ").append(getClass().getName()).append(". Do not modify!\n");
+    if (!packageName.isEmpty()) {
+      sb.append("package ").append(packageName).append(";\n\n");
+    }
+    sb.append("public final class ").append(simpleName).append(" implements ")
+        .append(SCENE_STATE_BINDER).append("<").append(sceneName).append("> {\n");
+    appendSave(sb, "saveState", sceneName, stateFields);
+    appendRestore(sb, "restoreState", sceneName, stateFields);
+    appendSave(sb, "saveViewState", sceneName, viewStateFields);
+    appendRestore(sb, "restoreViewState", sceneName, viewStateFields);
+    sb.append("}\n");
+
+    String className = packageName.isEmpty() ? simpleName : packageName + "." + simpleName;
+    try {
+      JavaFileObject file = filer.createSourceFile(className, scene);
+      Writer writer = file.openWriter();
+      try {
+        writer.write(sb.toString());
+      } finally {
+        writer.close();
+      }
+    } catch (IOException e) {
+      messager.printMessage(Diagnostic.Kind.ERROR, "Can't generate " + className + ": " + e, scene);
+    }
+  }
+
+  private void appendSave(StringBuilder sb, String method, String sceneName,
+      List<VariableElement> fields) {
+    sb.append("\n  @Override\n");
+    sb.append("  public void ").append(method).append("(").append(sceneName)
+        .append(" scene, ").append(PARCEL).append(" out) {\n");
+    for (VariableElement field : fields) {
+      String value = "scene." + field.getSimpleName();
+      sb.append("    ").append(String.format(getWriter(field.asType()), value)).append(";\n");
+    }
+    sb.append("  }\n");
+  }
+
+  // Returns true if the value is read with a cast to a generic type
+  private boolean isUncheckedCast(TypeMirror type) {
+    return type.getKind() == TypeKind.DECLARED
+        && !((DeclaredType) type).getTypeArguments().isEmpty()
+        && !isSubtype(type, String.class.getName())
+        && !isSubtype(type, BUNDLE);
+  }
+
+  private void appendRestore(StringBuilder sb, String method, String sceneName,
+      List<VariableElement> fields) {
+    sb.append("\n  @Override\n");
+    for (VariableElement field : fields) {
+      if (isUncheckedCast(field.asType())) {
+        sb.append("  @SuppressWarnings(\"unchecked\")\n");
+        break;
+      }
+    }
+    sb.append("  public void ").append(method).append("(").append(sceneName)
+        .append(" scene, ").append(PARCEL).append(" in) {\n");
+    boolean needsLoader = false;
+    for (VariableElement field : fields) {
+      TypeMirror type = field.asType();
+      if (type.getKind() == TypeKind.DECLARED && !isSubtype(type, String.class.getName())
+          && (isSubtype(type, BUNDLE) || isSubtype(type, PARCELABLE))) {
+        needsLoader = true;
+        break;
+      }
+    }
+    if (needsLoader) {
+      sb.append("    ClassLoader loader = scene.getClass().getClassLoader();\n");
+    }
+    for (VariableElement field : fields) {
+      sb.append("    scene.").append(field.getSimpleName()).append(" = ")
+          .append(getReader(field.asType())).append(";\n");
+    }
+    sb.append("  }\n");
+  }
+
+  private void error(Element element, String message) {
+    messager.printMessage(Diagnostic.Kind.ERROR, message, element);
+  }
+}
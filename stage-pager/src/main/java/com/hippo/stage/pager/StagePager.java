@@ -82,14 +82,7 @@ public class StagePager extends ViewPager {
   }
 
   private boolean hasCurtainRunning() {
-    if (director != null) {
-      for (Stage stage : director) {
-        if (stage.hasCurtainRunning()) {
-          return true;
-        }
-      }
-    }
-    return false;
+    return director != null && director.hasCurtainRunning();
   }
 
   @Override
@@ -65,6 +65,9 @@ public abstract class StagePagerAdapter extends PagerAdapter {
   private int mode;
   @Nullable
   private SparseArray<Bundle> savedStateMap;
+  // The only visible stage of this adapter
+  @Nullable
+  private Stage primaryStage;
 
   /**
    * Creates a new StagePagerAdapter using the passed host.
@@ -109,8 +112,14 @@ public abstract class StagePagerAdapter extends PagerAdapter {
 
     int id = getStageId(position);
 
+    // Make the stage invisible before it gets the container,
+    // off-screen scenes aren't started until it's the primary one.
     if (director.contains(id)) {
       // Contains the stage, just return it
+      Stage stage = director.direct(id);
+      if (stage != primaryStage) {
+        stage.setVisible(false);
+      }
       return director.direct(container, id);
     }
 
@@ -120,8 +129,10 @@ public abstract class StagePagerAdapter extends PagerAdapter {
       Bundle savedState = savedStateMap.get(id);
       if (savedState != null) {
         savedStateMap.remove(id);
-        stage = director.direct(container, savedState);
+        stage = director.direct(savedState);
         if (stage != null) {
+          stage.setVisible(false);
+          director.direct(container, id);
           restoreStage(stage, position);
         }
       }
@@ -129,7 +140,9 @@ public abstract class StagePagerAdapter extends PagerAdapter {
 
     // Create a new Stage
     if (stage == null) {
-      stage = director.direct(container, id);
+      stage = director.direct(id);
+      stage.setVisible(false);
+      director.direct(container, id);
       bindStage(stage, position);
     }
 
@@ -139,6 +152,11 @@ public abstract class StagePagerAdapter extends PagerAdapter {
   @Override
   public void destroyItem(@NonNull ViewGroup container, int position, @NonNull Object object) {
     Stage stage = (Stage) object;
+    if (stage == primaryStage) {
+      primaryStage = null;
+    }
+    // The value is kept after suspend(), keep it invisible until it's the primary one again
+    stage.setVisible(false);
 
     if (savedStateMap == null) {
       if (mode == MODE_RETAIN) {
@@ -157,6 +175,22 @@ public abstract class StagePagerAdapter extends PagerAdapter {
     }
   }
 
+  @Override
+  public void setPrimaryItem(@NonNull ViewGroup container, int position, @NonNull Object object) {
+    super.setPrimaryItem(container, position, object);
+
+    // Only the primary stage is visible for user, keep the off-screen ones stopped.
+    // Stages of this adapter are created invisible, only switch the primary one.
+    Stage stage = (Stage) object;
+    if (stage != primaryStage) {
+      if (primaryStage != null) {
+        primaryStage.setVisible(false);
+      }
+      primaryStage = stage;
+      stage.setVisible(true);
+    }
+  }
+
   @Override
   public boolean isViewFromObject(@NonNull View view, @NonNull Object object) {
     Stage stage = (Stage) object;
@@ -0,0 +1,12 @@
+# Consumer ProGuard rules, applied to apps depending on stage.
+
+# Scenes are created from their class names while restoring
+-keepnames class * extends com.hippo.stage.Scene
+-keepclassmembers class * extends com.hippo.stage.Scene {
+    public <init>();
+}
+
+# State binders are found by the names of their scenes, see SceneStates
+-keep class * implements com.hippo.stage.SceneStateBinder {
+    public <init>();
+}
@@ -33,6 +33,8 @@ import android.support.annotation.RequiresApi;
 
 class ActivityHostedDirector extends Director {
 
+  private static final boolean DEBUG = BuildConfig.DEBUG;
+
   private static final String FRAGMENT_TAG = "ActivityHostedDirector";
 
   private static final String KEY_CURRENT_SCENE_ID = "ActivityHostedDirector:current_scene_id";
@@ -74,6 +76,38 @@ class ActivityHostedDirector extends Director {
     return director;
   }
 
+  /**
+   * Returns the director driven by activity lifecycle callbacks directly,
+   * without the headless fragment.
+   * The director is retained across configuration changes
+   * if it's returned in {@link Activity#onRetainNonConfigurationInstance()}.
+   */
+  @NonNull
+  static ActivityHostedDirector getDirectInstance(@NonNull Activity activity,
+      @Nullable Bundle savedInstanceState, @Nullable Object lastNonConfigurationInstance) {
+    ActivityHostedDirector director;
+    if (lastNonConfigurationInstance instanceof ActivityHostedDirector) {
+      director = (ActivityHostedDirector) lastNonConfigurationInstance;
+      if (DEBUG) {
+        if (director.fragment != null) {
+          throw new IllegalStateException("The director is hosted by a fragment");
+        }
+      }
+      director.setActivity(activity);
+    } else {
+      director = new ActivityHostedDirector();
+      director.setActivity(activity);
+      if (savedInstanceState != null) {
+        director.restoreInstanceState(savedInstanceState);
+      }
+    }
+
+    activity.getApplication().registerActivityLifecycleCallbacks(
+        new LifecycleCallbacks(activity, director));
+
+    return director;
+  }
+
   private void setActivity(@Nullable Activity activity) {
     if (this.activity == null) {
       this.activity = activity;
@@ -97,6 +131,8 @@ class ActivityHostedDirector extends Director {
   void startActivity(@NonNull Intent intent) {
     if (fragment != null) {
       fragment.startActivity(intent);
+    } else if (activity != null) {
+      activity.startActivity(intent);
     }
   }
 
@@ -105,6 +141,8 @@ class ActivityHostedDirector extends Director {
   void startActivity(@NonNull Intent intent, @Nullable Bundle options) {
     if (fragment != null) {
       fragment.startActivity(intent, options);
+    } else if (activity != null) {
+      activity.startActivity(intent, options);
     }
   }
 
@@ -112,6 +150,8 @@ class ActivityHostedDirector extends Director {
   void startActivityForResult(Intent intent, int requestCode) {
     if (fragment != null) {
       fragment.startActivityForResult(intent, requestCode);
+    } else if (activity != null) {
+      activity.startActivityForResult(intent, requestCode);
     }
   }
 
@@ -120,6 +160,8 @@ class ActivityHostedDirector extends Director {
   void startActivityForResult(Intent intent, int requestCode, Bundle options) {
     if (fragment != null) {
       fragment.startActivityForResult(intent, requestCode, options);
+    } else if (activity != null) {
+      activity.startActivityForResult(intent, requestCode, options);
     }
   }
 
@@ -129,6 +171,8 @@ class ActivityHostedDirector extends Director {
     if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
       if (fragment != null) {
         fragment.requestPermissions(permissions, requestCode);
+      } else if (activity != null) {
+        activity.requestPermissions(permissions, requestCode);
       }
     } else {
       if (handler != null) {
@@ -177,8 +221,8 @@ class ActivityHostedDirector extends Director {
   }
 
   @Override
-  void detach(boolean saveViewStateIfNecessary) {
-    super.detach(saveViewStateIfNecessary);
+  void detach(boolean saveViewStateIfNecessary, int changingConfigurations) {
+    super.detach(saveViewStateIfNecessary, changingConfigurations);
 
     // If the director is finishing, let destroy() clear activity reference
     if (!isFinishing()) {
@@ -209,6 +253,84 @@ class ActivityHostedDirector extends Director {
   void restoreInstanceState(@NonNull Bundle savedInstanceState) {
     currentSceneId = savedInstanceState.getInt(KEY_CURRENT_SCENE_ID, Scene.INVALID_ID);
     super.restoreInstanceState(savedInstanceState);
+    // Unparcel saved stages and load scene classes in parallel, ahead of restoring them
+    expandSavedStageStates();
+  }
+
+  /**
+   * Drives the director with the lifecycle of an activity,
+   * used instead of {@link DataFragment} by
+   * {@link #getDirectInstance(Activity, Bundle, Object)}.
+   */
+  private static class LifecycleCallbacks extends ActivityCallbacks {
+
+    @Nullable
+    private Activity activity;
+    @Nullable
+    private ActivityHostedDirector director;
+
+    private LifecycleCallbacks(@NonNull Activity activity,
+        @NonNull ActivityHostedDirector director) {
+      this.activity = activity;
+      this.director = director;
+    }
+
+    @Override
+    public void onActivityStarted(Activity activity) {
+      if (director != null && activity == this.activity) {
+        director.start();
+      }
+    }
+
+    @Override
+    public void onActivityResumed(Activity activity) {
+      if (director != null && activity == this.activity) {
+        director.resume();
+      }
+    }
+
+    @Override
+    public void onActivityPaused(Activity activity) {
+      if (director != null && activity == this.activity) {
+        director.pause();
+      }
+    }
+
+    @Override
+    public void onActivityStopped(Activity activity) {
+      if (director != null && activity == this.activity) {
+        director.stop();
+      }
+    }
+
+    @Override
+    public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+      if (director != null && activity == this.activity && director.isSaveEnabled()) {
+        director.saveInstanceState(outState);
+      }
+    }
+
+    @Override
+    public void onActivityDestroyed(Activity activity) {
+      if (director == null || activity != this.activity) {
+        return;
+      }
+
+      activity.getApplication().unregisterActivityLifecycleCallbacks(this);
+
+      director.setActivityDestroyed();
+      if (activity.isChangingConfigurations()) {
+        // The director is retained by the activity, it will be hired by the new one
+        director.detach(false, activity.getChangingConfigurations());
+      } else {
+        director.finish(!activity.isFinishing());
+        director.detach(false);
+        director.destroy();
+      }
+
+      this.activity = null;
+      this.director = null;
+    }
   }
 
   public static class DataFragment extends Fragment {
@@ -319,7 +441,8 @@ class ActivityHostedDirector extends Director {
       if (director != null) {
         // DataFragment can only be detached if Activity is detached
         director.setActivityDestroyed();
-        director.detach(false);
+        // Scenes might keep views if the activity is recreated for configuration changes
+        director.detach(false, isFinishing ? 0 : getActivity().getChangingConfigurations());
         if (isFinishing) {
           director.destroy();
         }
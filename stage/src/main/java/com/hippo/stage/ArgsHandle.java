@@ -0,0 +1,103 @@
+/*
+ * Copyright 2017 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.stage;
+
+import android.os.Bundle;
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * An {@code ArgsHandle} puts an object to {@link Scene} args by reference.
+ * <p>
+ * In the process, the object is passed between scenes without copying or parcelling.
+ * It's only parcelled if the args is parcelled, like the host activity saves state
+ * for process death. The handle is registered to the {@link Director} when the scene
+ * is created, and the object is released when all scenes with the handle are destroyed.
+ * <pre>
+ * Bundle args = new Bundle();
+ * ArgsHandle.put(args, KEY_DATA, data);
+ * scene.setArgs(args);
+ * ...
+ * protected void onCreate(@NonNull Bundle args) {
+ *   Data data = ArgsHandle.get(args, KEY_DATA);
+ * }
+ * </pre>
+ */
+public final class ArgsHandle implements Parcelable {
+
+  @Nullable
+  private Parcelable object;
+
+  private ArgsHandle(@Nullable Parcelable object) {
+    this.object = object;
+  }
+
+  /**
+   * Puts the object to the args by reference.
+   */
+  public static void put(@NonNull Bundle args, @NonNull String key, @Nullable Parcelable object) {
+    args.putParcelable(key, new ArgsHandle(object));
+  }
+
+  /**
+   * Gets the object put by {@link #put(Bundle, String, Parcelable)}.
+   * Returns {@code null} if there is no such object, or it's released.
+   */
+  @SuppressWarnings("unchecked")
+  @Nullable
+  public static <T extends Parcelable> T get(@NonNull Bundle args, @NonNull String key) {
+    Object value = args.get(key);
+    return value instanceof ArgsHandle ? (T) ((ArgsHandle) value).object : null;
+  }
+
+  /**
+   * Called by {@link Director} if no scene holds it.
+   */
+  void release() {
+    object = null;
+  }
+
+  @Override
+  public int describeContents() {
+    return object != null ? object.describeContents() : 0;
+  }
+
+  @Override
+  public void writeToParcel(Parcel dest, int flags) {
+    dest.writeParcelable(object, flags);
+  }
+
+  public static final Creator<ArgsHandle> CREATOR = new ClassLoaderCreator<ArgsHandle>() {
+    @Override
+    public ArgsHandle createFromParcel(Parcel source, ClassLoader loader) {
+      return new ArgsHandle(source.readParcelable(
+          loader != null ? loader : ArgsHandle.class.getClassLoader()));
+    }
+
+    @Override
+    public ArgsHandle createFromParcel(Parcel source) {
+      return new ArgsHandle(source.readParcelable(ArgsHandle.class.getClassLoader()));
+    }
+
+    @Override
+    public ArgsHandle[] newArray(int size) {
+      return new ArgsHandle[size];
+    }
+  };
+}
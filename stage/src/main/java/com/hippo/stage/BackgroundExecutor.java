@@ -0,0 +1,89 @@
+/*
+ * Copyright 2017 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.stage;
+
+import android.os.Process;
+import android.support.annotation.NonNull;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The background executor shared by the library.
+ * Its threads are created lazily, run in background priority and die when idle.
+ */
+final class BackgroundExecutor {
+  private BackgroundExecutor() {}
+
+  private static final int CPU_COUNT = Runtime.getRuntime().availableProcessors();
+  static final int POOL_SIZE = Math.max(2, Math.min(CPU_COUNT - 1, 4));
+  private static final long KEEP_ALIVE_SECONDS = 30;
+
+  private static volatile ExecutorService sExecutor;
+
+  @NonNull
+  static ExecutorService get() {
+    ExecutorService executor = sExecutor;
+    if (executor == null) {
+      synchronized (BackgroundExecutor.class) {
+        executor = sExecutor;
+        if (executor == null) {
+          sExecutor = executor = newExecutor("Stage-Background");
+        }
+      }
+    }
+    return executor;
+  }
+
+  /**
+   * Creates a new executor like the shared one, with its own threads.
+   */
+  @NonNull
+  static ExecutorService newExecutor(@NonNull String name) {
+    ThreadPoolExecutor pool = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE,
+        KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+        new BackgroundThreadFactory(name));
+    pool.allowCoreThreadTimeOut(true);
+    return pool;
+  }
+
+  static final class BackgroundThreadFactory implements ThreadFactory {
+
+    private final String name;
+    private final AtomicInteger count = new AtomicInteger();
+
+    BackgroundThreadFactory(@NonNull String name) {
+      this.name = name;
+    }
+
+    @Override
+    public Thread newThread(@NonNull final Runnable r) {
+      Thread thread = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+          r.run();
+        }
+      }, name + "-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2017 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.stage;
+
+import android.support.annotation.NonNull;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * A byte encoding for the library-owned fields of saved states.
+ * Ints are written as varints, strings as UTF-8 with a varint length.
+ */
+final class CompactState {
+  private CompactState() {}
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  static final class Writer {
+
+    private byte[] buffer = new byte[16];
+    private int size;
+
+    private void ensureCapacity(int extra) {
+      if (size + extra > buffer.length) {
+        buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + extra));
+      }
+    }
+
+    void writeByte(int value) {
+      ensureCapacity(1);
+      buffer[size++] = (byte) value;
+    }
+
+    // Negative values take 5 bytes
+    void writeVarint(int value) {
+      ensureCapacity(5);
+      while ((value & ~0x7F) != 0) {
+        buffer[size++] = (byte) ((value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      buffer[size++] = (byte) value;
+    }
+
+    void writeString(@NonNull String value) {
+      byte[] bytes = value.getBytes(UTF_8);
+      writeVarint(bytes.length);
+      ensureCapacity(bytes.length);
+      System.arraycopy(bytes, 0, buffer, size, bytes.length);
+      size += bytes.length;
+    }
+
+    @NonNull
+    byte[] toByteArray() {
+      return Arrays.copyOf(buffer, size);
+    }
+  }
+
+  static final class Reader {
+
+    private final byte[] buffer;
+    private int position;
+
+    Reader(@NonNull byte[] buffer) {
+      this.buffer = buffer;
+    }
+
+    int readByte() {
+      return buffer[position++] & 0xFF;
+    }
+
+    int readVarint() {
+      int value = 0;
+      int shift = 0;
+      int b;
+      do {
+        b = buffer[position++];
+        value |= (b & 0x7F) << shift;
+        shift += 7;
+      } while ((b & 0x80) != 0);
+      return value;
+    }
+
+    @NonNull
+    String readString() {
+      int length = readVarint();
+      String value = new String(buffer, position, length, UTF_8);
+      position += length;
+      return value;
+    }
+  }
+}
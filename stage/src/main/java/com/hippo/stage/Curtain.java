@@ -20,7 +20,16 @@ package com.hippo.stage;
  * Created by Hippo on 4/21/2017.
  */
 
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.PixelFormat;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.os.Build;
 import android.support.annotation.NonNull;
+import android.view.SurfaceView;
+import android.view.TextureView;
+import android.view.View;
 import android.view.ViewGroup;
 import java.util.List;
 
@@ -44,6 +53,96 @@ public abstract class Curtain {
   protected abstract void execute(@NonNull ViewGroup container, @NonNull SceneInfo upper,
       @NonNull List<SceneInfo> lower, @NonNull OnCompleteListener listener);
 
+  /**
+   * Replaces the view of a {@link SceneInfo#WILL_BE_DETACHED} scene with a snapshot
+   * in the overlay of the container, then detaches the view right now.
+   * The view is destroyed if it's not retained, so it's not measured or drawn
+   * anymore in the rest of this {@code Curtain}.
+   * <p>
+   * The overlay is drawn above all views in the container, so it's suitable for
+   * the upper scene only.
+   * The snapshot is drawn once by {@link View#draw(Canvas)} into a bitmap of the view size,
+   * {@code RGB_565} if the view background is opaque. It must be removed by
+   * {@link #clearSnapshot(ViewGroup, SceneInfo)} before this {@code Curtain} completes.
+   * <p>
+   * Returns a {@code SceneInfo} with the snapshot as the view, or {@code info} itself
+   * if it can't be snapshotted, like below Android 4.3, or if the view contains
+   * a {@code SurfaceView} or a {@code TextureView}, which {@code draw()} can't capture.
+   */
+  @NonNull
+  protected final SceneInfo snapshot(@NonNull ViewGroup container, @NonNull SceneInfo info) {
+    View view = info.view;
+    Stage stage = info.scene.getStage();
+    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR2
+        || info.viewState != SceneInfo.WILL_BE_DETACHED || info.isDetached || stage == null
+        || view.getParent() != container || view.getWidth() <= 0 || view.getHeight() <= 0
+        || hasSurface(view)) {
+      return info;
+    }
+
+    // No alpha channel, half the memory
+    Drawable background = view.getBackground();
+    Bitmap.Config config = background != null && background.getOpacity() == PixelFormat.OPAQUE
+        ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+    Bitmap bitmap;
+    try {
+      bitmap = Bitmap.createBitmap(view.getWidth(), view.getHeight(), config);
+    } catch (OutOfMemoryError e) {
+      // Just animate the view
+      return info;
+    }
+    view.draw(new Canvas(bitmap));
+
+    View snapshot = new View(container.getContext());
+    snapshot.setBackground(new BitmapDrawable(container.getResources(), bitmap));
+    // Views in overlay aren't laid out by the container
+    snapshot.layout(view.getLeft(), view.getTop(), view.getRight(), view.getBottom());
+    snapshot.setTranslationX(view.getTranslationX());
+    snapshot.setTranslationY(view.getTranslationY());
+    snapshot.setAlpha(view.getAlpha());
+    container.getOverlay().add(snapshot);
+
+    SceneInfo result = new SceneInfo.Builder()
+        .scene(info.scene)
+        .view(snapshot)
+        .viewState(SceneInfo.WILL_BE_DETACHED)
+        .build();
+    result.isDetached = true;
+    result.snapshot = bitmap;
+
+    stage.detachViewEarly(info);
+
+    return result;
+  }
+
+  // SurfaceView and TextureView are blank in View.draw()
+  private static boolean hasSurface(@NonNull View view) {
+    if (view instanceof SurfaceView || view instanceof TextureView) {
+      return true;
+    }
+    if (view instanceof ViewGroup) {
+      ViewGroup group = (ViewGroup) view;
+      for (int i = 0, n = group.getChildCount(); i < n; i++) {
+        if (hasSurface(group.getChildAt(i))) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Removes the snapshot created by {@link #snapshot(ViewGroup, SceneInfo)}.
+   * Does nothing if the view of {@code info} isn't a snapshot.
+   */
+  protected final void clearSnapshot(@NonNull ViewGroup container, @NonNull SceneInfo info) {
+    if (info.snapshot != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+      container.getOverlay().remove(info.view);
+      info.snapshot.recycle();
+      info.snapshot = null;
+    }
+  }
+
   /**
    * A listener for being notified when the {@link Curtain} is complete.
    */
@@ -22,6 +22,7 @@ package com.hippo.stage;
 
 import android.app.Activity;
 import android.content.Intent;
+import android.graphics.drawable.Drawable;
 import android.os.Build;
 import android.os.Bundle;
 import android.support.annotation.NonNull;
@@ -29,10 +30,17 @@ import android.support.annotation.Nullable;
 import android.support.annotation.RequiresApi;
 import android.util.SparseArray;
 import android.util.SparseIntArray;
+import android.view.View;
 import android.view.ViewGroup;
+import android.view.Window;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.UUID;
 
 /**
  * A {@code Director} can direct multiple stage.
@@ -42,6 +50,8 @@ public abstract class Director implements Iterable<Stage> {
   private static final boolean DEBUG = BuildConfig.DEBUG;
 
   private static final String KEY_STAGE_STATES = "Director:stage_states";
+  private static final String KEY_SPILL_OWNER = "Director:spill_owner";
+  private static final String KEY_SPILLED_FILES = "Director:spilled_files";
 
   private boolean isStarted;
   private boolean isResumed;
@@ -49,6 +59,10 @@ public abstract class Director implements Iterable<Stage> {
   private boolean isDestroyed;
 
   private final SparseArray<Stage> stageMap = new SparseArray<>();
+  // Saved states of the Stages which haven't been asked for since restored
+  private final SparseArray<Bundle> savedStageStates = new SparseArray<>();
+  // Background expansions of saved states, the states can't be touched until they're awaited
+  private final SparseArray<SavedStateExpansion> savedStageExpansions = new SparseArray<>();
   private final SparseIntArray activityRequestCodeMap = new SparseIntArray();
   private final SparseIntArray permissionRequestCodeMap = new SparseIntArray();
 
@@ -60,6 +74,39 @@ public abstract class Director implements Iterable<Stage> {
 
   private boolean saveEnabled = true;
 
+  // Lifecycle listeners for all scenes, copy-on-write to dispatch events without allocation
+  private LifecycleListenerRecord[] lifecycleListeners = new LifecycleListenerRecord[0];
+  // All events subscribed by lifecycle listeners
+  private int lifecycleListenerEvents;
+
+  // The number of Stages which have curtain running
+  private int runningCurtainCount;
+
+  @Nullable
+  private SnapshotStore snapshotStore;
+
+  private boolean compactSavedState;
+
+  @Nullable
+  private SavedStateBudget savedStateBudget;
+  private boolean isSavingSnapshot;
+  // The owner of the spilled files manifest of the saved state
+  @Nullable
+  private String spillOwner;
+  // The spilled files referenced by the restored state
+  @Nullable
+  private ArrayList<String> restoredSpilledFiles;
+
+  // ArgsHandles in args of created scenes, and the count of the scenes
+  private final IdentityHashMap<ArgsHandle, Integer> argsHandles = new IdentityHashMap<>();
+
+  // Stages whose top scene covers the window
+  private final Set<Stage> windowCoveringStages = new HashSet<>();
+  @Nullable
+  private Window clearedWindow;
+  @Nullable
+  private Drawable windowBackground;
+
   // Hide Director constructor
   Director() {}
 
@@ -73,11 +120,48 @@ public abstract class Director implements Iterable<Stage> {
     return ActivityHostedDirector.getInstance(activity, savedInstanceState);
   }
 
+  /**
+   * Hires a {@link Director} for a {@link Activity} without the headless fragment
+   * used by {@link #hire(Activity, Bundle)}.
+   * It's driven by the activity lifecycle callbacks directly,
+   * so it's ready as soon as it's hired, no fragment transaction to wait for.
+   * It must be called in {@link Activity#onCreate(Bundle)}.
+   * <p>
+   * To keep the {@code Director} across configuration changes, the activity must
+   * return it in {@link Activity#onRetainNonConfigurationInstance()}
+   * (or {@code FragmentActivity.onRetainCustomNonConfigurationInstance()}),
+   * and pass the last one as {@code lastNonConfigurationInstance}.
+   * <p>
+   * The activity must pass the results of {@code startActivityForResult()} and
+   * {@code requestPermissions()} to {@link #dispatchActivityResult(int, int, Intent)}
+   * and {@link #dispatchRequestPermissionsResult(int, String[], int[])}.
+   *
+   * @param savedInstanceState the {@link Bundle} passed in {@link Activity#onCreate(Bundle)}
+   * @param lastNonConfigurationInstance the object returned by
+   *     {@link Activity#getLastNonConfigurationInstance()}
+   */
+  @NonNull
+  public static Director hireWithoutFragment(@NonNull Activity activity,
+      @Nullable Bundle savedInstanceState, @Nullable Object lastNonConfigurationInstance) {
+    return ActivityHostedDirector.getDirectInstance(
+        activity, savedInstanceState, lastNonConfigurationInstance);
+  }
+
+  /**
+   * Registers a {@link SceneFactory} to create restored {@link Scene}s without reflection.
+   * Scenes which no factory supports are created by reflection.
+   * It should be called before any {@code Director} is hired,
+   * like in {@code Application.onCreate()}.
+   */
+  public static void registerSceneFactory(@NonNull SceneFactory factory) {
+    Utils.addSceneFactory(factory);
+  }
+
   /**
    * Returns {@code true} if this {@code Director} contains a {@link Stage} with the id.
    */
   public boolean contains(int id) {
-    return stageMap.indexOfKey(id) >= 0;
+    return stageMap.indexOfKey(id) >= 0 || savedStageStates.indexOfKey(id) >= 0;
   }
 
   /**
@@ -86,7 +170,43 @@ public abstract class Director implements Iterable<Stage> {
    */
   @Nullable
   public Stage get(int id) {
-    return stageMap.get(id);
+    Stage stage = stageMap.get(id);
+    if (stage == null) {
+      stage = restoreStage(id);
+    }
+    return stage;
+  }
+
+  // Restores the Stage from the saved state, returns null if no saved state for it
+  @Nullable
+  private Stage restoreStage(int id) {
+    Bundle savedState = savedStageStates.get(id);
+    if (savedState == null) {
+      return null;
+    }
+    savedStageStates.remove(id);
+    awaitSavedStageExpansion(id);
+
+    Stage stage = new Stage(this);
+    stage.restoreInstanceState(savedState);
+
+    // Restore stage lifecycle
+    if (isStarted) {
+      stage.start();
+    }
+    if (isResumed) {
+      stage.resume();
+    }
+
+    stageMap.put(id, stage);
+    onSavedStateChanged();
+    return stage;
+  }
+
+  private void restoreAllStages() {
+    while (savedStageStates.size() > 0) {
+      restoreStage(savedStageStates.keyAt(0));
+    }
   }
 
   /**
@@ -167,7 +287,7 @@ public abstract class Director implements Iterable<Stage> {
       throw new IllegalStateException("Can't call direct() on a destroyed Director");
     }
 
-    Stage stage = stageMap.get(id);
+    Stage stage = get(id);
     if (stage == null) {
       stage = new Stage(this);
       if (savedState != null) {
@@ -189,6 +309,7 @@ public abstract class Director implements Iterable<Stage> {
       }
 
       stageMap.put(id, stage);
+      onSavedStateChanged();
     } else if (container != null) {
       if (!stage.hasContainer()) {
         stage.setContainer(container);
@@ -219,14 +340,22 @@ public abstract class Director implements Iterable<Stage> {
     stage.destroy();
 
     stageMap.remove(stage.getId());
+    onSavedStateChanged();
   }
 
+  /**
+   * Called if the saved state of this {@code Director} might be changed,
+   * like stages added or scenes pushed.
+   */
+  void onSavedStateChanged() {}
+
   /**
    * Returns an unmodified Stage iterator which is a mysterious order.
    */
   @NonNull
   @Override
   public Iterator<Stage> iterator() {
+    restoreAllStages();
     return new Iterator<Stage>() {
 
       private int index = 0;
@@ -260,6 +389,237 @@ public abstract class Director implements Iterable<Stage> {
     return saveEnabled;
   }
 
+  /**
+   * Controls whether the library-owned fields of the saved state are written
+   * in a compact encoding: ids as varints, flags packed in bits, and a class name
+   * table for each stage. Arguments and view states of scenes are kept as they are.
+   * It reduces the size of the saved state for deep scene stacks.
+   * Both encodings are always readable, the scenes not restored yet are re-encoded
+   * when they are saved again. It's set to the root {@code Director}.
+   * {@code false} in default.
+   */
+  public void setCompactSavedState(boolean compact) {
+    getRootDirector().compactSavedState = compact;
+  }
+
+  /**
+   * Indicates whether the saved state is written in the compact encoding.
+   */
+  public boolean isCompactSavedState() {
+    return getRootDirector().compactSavedState;
+  }
+
+  /**
+   * Registers {@link ArgsHandle}s in the args to the root {@code Director}.
+   * Called by {@link Scene} if it's created.
+   */
+  void retainArgsHandles(@NonNull Bundle args) {
+    IdentityHashMap<ArgsHandle, Integer> handles = getRootDirector().argsHandles;
+    for (String key : args.keySet()) {
+      Object value = args.get(key);
+      if (value instanceof ArgsHandle) {
+        ArgsHandle handle = (ArgsHandle) value;
+        Integer count = handles.get(handle);
+        handles.put(handle, count != null ? count + 1 : 1);
+      }
+    }
+  }
+
+  /**
+   * Unregisters {@link ArgsHandle}s in the args from the root {@code Director},
+   * releases the handles which no scene holds.
+   * Called by {@link Scene} if it's destroyed.
+   */
+  void releaseArgsHandles(@NonNull Bundle args) {
+    IdentityHashMap<ArgsHandle, Integer> handles = getRootDirector().argsHandles;
+    if (handles.isEmpty()) {
+      return;
+    }
+    for (String key : args.keySet()) {
+      Object value = args.get(key);
+      if (value instanceof ArgsHandle) {
+        ArgsHandle handle = (ArgsHandle) value;
+        Integer count = handles.get(handle);
+        if (count == null) {
+          // Not registered, like put in onUpdateArgs()
+          continue;
+        }
+        if (count > 1) {
+          handles.put(handle, count - 1);
+        } else {
+          handles.remove(handle);
+          handle.release();
+        }
+      }
+    }
+  }
+
+  /**
+   * Sets a {@link SavedStateBudget} to measure the saved state of the whole hierarchy,
+   * and spill the largest entries to files if the budget is exceeded.
+   * It's set to the root {@code Director}.
+   */
+  public void setSavedStateBudget(@Nullable SavedStateBudget budget) {
+    getRootDirector().savedStateBudget = budget;
+  }
+
+  // Snapshots aren't held by the system, they don't need to be measured or spilled
+  @Nullable
+  SavedStateBudget getSavedStateBudget() {
+    return isSavingSnapshot ? null : savedStateBudget;
+  }
+
+  /**
+   * Sets a {@link SnapshotStore} to keep a snapshot of the whole hierarchy
+   * after each navigation settles. The store is set to the root {@code Director}.
+   * Setting {@code null} stops taking snapshots.
+   */
+  public void setSnapshotStore(@Nullable SnapshotStore store) {
+    Director root = getRootDirector();
+    if (root.snapshotStore != null && root.snapshotStore != store) {
+      root.snapshotStore.cancel(root);
+    }
+    root.snapshotStore = store;
+  }
+
+  /**
+   * Called by {@link Stage} if a navigation settles.
+   */
+  void scheduleSnapshot() {
+    Director root = getRootDirector();
+    if (root.snapshotStore != null && !root.isFinishing) {
+      root.snapshotStore.schedule(root);
+    }
+  }
+
+  /**
+   * Returns the root {@code Director} of the hierarchy, which is hosted by an activity.
+   */
+  @NonNull
+  Director getRootDirector() {
+    return this;
+  }
+
+  /**
+   * Adds a {@link Scene.LifecycleListener} for all {@link Scene}s in the hierarchy,
+   * including the {@code Scene}s of child {@code Director}s.
+   * The listener is registered to the root {@code Director}.
+   * Only the events in {@code events} are dispatched to the listener.
+   * <p>
+   * If the listener has been added, its events are updated.
+   *
+   * @param events the combination of {@code Scene.LifecycleListener.EVENT_*}
+   */
+  public void addLifecycleListener(
+      @NonNull Scene.LifecycleListener listener, @Scene.LifecycleListener.Event int events) {
+    Director root = getRootDirector();
+    LifecycleListenerRecord[] records = root.lifecycleListeners;
+    int index = indexOfLifecycleListener(records, listener);
+    LifecycleListenerRecord[] newRecords;
+    if (index >= 0) {
+      newRecords = records.clone();
+    } else {
+      index = records.length;
+      newRecords = new LifecycleListenerRecord[records.length + 1];
+      System.arraycopy(records, 0, newRecords, 0, records.length);
+    }
+    newRecords[index] = new LifecycleListenerRecord(listener, events);
+    root.setLifecycleListeners(newRecords);
+  }
+
+  /**
+   * Removes a {@link Scene.LifecycleListener} added by
+   * {@link #addLifecycleListener(Scene.LifecycleListener, int)}.
+   */
+  public void removeLifecycleListener(@NonNull Scene.LifecycleListener listener) {
+    Director root = getRootDirector();
+    LifecycleListenerRecord[] records = root.lifecycleListeners;
+    int index = indexOfLifecycleListener(records, listener);
+    if (index < 0) {
+      return;
+    }
+    LifecycleListenerRecord[] newRecords = new LifecycleListenerRecord[records.length - 1];
+    System.arraycopy(records, 0, newRecords, 0, index);
+    System.arraycopy(records, index + 1, newRecords, index, records.length - index - 1);
+    root.setLifecycleListeners(newRecords);
+  }
+
+  private static int indexOfLifecycleListener(
+      LifecycleListenerRecord[] records, Scene.LifecycleListener listener) {
+    for (int i = 0; i < records.length; i++) {
+      if (records[i].listener == listener) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private void setLifecycleListeners(LifecycleListenerRecord[] records) {
+    int events = 0;
+    for (LifecycleListenerRecord record : records) {
+      events |= record.events;
+    }
+    lifecycleListeners = records;
+    lifecycleListenerEvents = events;
+  }
+
+  boolean hasLifecycleListener(@Scene.LifecycleListener.Event int event) {
+    return (lifecycleListenerEvents & event) != 0;
+  }
+
+  void dispatchLifecycleEvent(
+      @Scene.LifecycleListener.Event int event, @NonNull Scene scene, @Nullable Object arg) {
+    // Listeners added or removed in callbacks don't affect this dispatching
+    LifecycleListenerRecord[] records = lifecycleListeners;
+    for (LifecycleListenerRecord record : records) {
+      if ((record.events & event) == 0) {
+        continue;
+      }
+      Scene.LifecycleListener listener = record.listener;
+      switch (event) {
+        case Scene.LifecycleListener.EVENT_CREATE:
+          listener.onCreate(scene, (Bundle) arg);
+          break;
+        case Scene.LifecycleListener.EVENT_CREATE_VIEW:
+          listener.onCreateView(scene);
+          break;
+        case Scene.LifecycleListener.EVENT_ATTACH_VIEW:
+          listener.onAttachView(scene, (View) arg);
+          break;
+        case Scene.LifecycleListener.EVENT_START:
+          listener.onStart(scene);
+          break;
+        case Scene.LifecycleListener.EVENT_RESUME:
+          listener.onResume(scene);
+          break;
+        case Scene.LifecycleListener.EVENT_PAUSE:
+          listener.onPause(scene);
+          break;
+        case Scene.LifecycleListener.EVENT_STOP:
+          listener.onStop(scene);
+          break;
+        case Scene.LifecycleListener.EVENT_DETACH_VIEW:
+          listener.onDetachView(scene, (View) arg);
+          break;
+        case Scene.LifecycleListener.EVENT_DESTROY_VIEW:
+          listener.onDestroyView(scene, (View) arg);
+          break;
+        case Scene.LifecycleListener.EVENT_DESTROY:
+          listener.onDestroy(scene);
+          break;
+        case Scene.LifecycleListener.EVENT_UPDATE_ARGS:
+          listener.onUpdateArgs(scene, (Bundle) arg);
+          break;
+        case Scene.LifecycleListener.EVENT_SAVE_VIEW_STATE:
+          listener.onSaveViewState(scene, (Bundle) arg);
+          break;
+        case Scene.LifecycleListener.EVENT_RESTORE_VIEW_STATE:
+          listener.onRestoreViewState(scene, (Bundle) arg);
+          break;
+      }
+    }
+  }
+
   /**
    * Requests focus for its host {@code Stage} if it's a child {@code Director} of a {@link Scene}.
    */
@@ -323,6 +683,7 @@ public abstract class Director implements Iterable<Stage> {
    * It calls {@link Stage#handleBack()} on the focused {@link Stage}.
    * If the back action isn't consumed, it traversal every {@code Stage} until
    * the back action is consumed.
+   * The saved {@code Stage}s which haven't been asked for since restored are skipped.
    */
   public boolean onHandleBack() {
     if (focusedStage != null && focusedStage.handleBack()) {
@@ -355,6 +716,50 @@ public abstract class Director implements Iterable<Stage> {
 
   abstract int requireSceneId();
 
+  /**
+   * Called by {@link Stage} if whether it has curtain running changed.
+   */
+  void onCurtainRunningChanged(boolean running) {
+    runningCurtainCount += running ? 1 : -1;
+  }
+
+  /**
+   * Returns {@code true} if any {@link Stage} of this {@code Director}
+   * has a running {@link Curtain}.
+   *
+   * @see Stage#hasCurtainRunning()
+   */
+  public boolean hasCurtainRunning() {
+    return runningCurtainCount > 0;
+  }
+
+  /**
+   * Called by {@link Stage} if whether its top scene covers the window changed.
+   * The window background is cleared if any {@code Stage} covers it.
+   */
+  void setWindowCovered(@NonNull Stage stage, boolean covered) {
+    if (covered) {
+      windowCoveringStages.add(stage);
+    } else {
+      windowCoveringStages.remove(stage);
+    }
+
+    if (!windowCoveringStages.isEmpty()) {
+      if (clearedWindow == null) {
+        Activity activity = getActivity();
+        if (activity != null) {
+          clearedWindow = activity.getWindow();
+          windowBackground = clearedWindow.getDecorView().getBackground();
+          clearedWindow.setBackgroundDrawable(null);
+        }
+      }
+    } else if (clearedWindow != null) {
+      clearedWindow.setBackgroundDrawable(windowBackground);
+      clearedWindow = null;
+      windowBackground = null;
+    }
+  }
+
   /**
    * Look for a child {@link Scene} with the given id.
    */
@@ -367,6 +772,14 @@ public abstract class Director implements Iterable<Stage> {
         return result;
       }
     }
+    // Look into the Stages not restored yet, one by one
+    while (savedStageStates.size() > 0) {
+      Stage stage = restoreStage(savedStageStates.keyAt(0));
+      Scene result = stage != null ? stage.findSceneById(sceneId) : null;
+      if (result != null) {
+        return result;
+      }
+    }
     return null;
   }
 
@@ -403,13 +816,32 @@ public abstract class Director implements Iterable<Stage> {
     if (index >= 0) {
       int stageId = activityRequestCodeMap.valueAt(index);
       activityRequestCodeMap.removeAt(index);
-      Stage stage = stageMap.get(stageId);
+      Stage stage = get(stageId);
       if (stage != null) {
         stage.onActivityResult(requestCode, resultCode, data);
       }
     }
   }
 
+  /**
+   * Passes the result of an activity started by a {@link Scene} to it.
+   * Only required for the {@code Director} hired by
+   * {@link #hireWithoutFragment(Activity, Bundle, Object)}.
+   */
+  public void dispatchActivityResult(int requestCode, int resultCode, Intent data) {
+    onActivityResult(requestCode, resultCode, data);
+  }
+
+  /**
+   * Passes the result of a permission request from a {@link Scene} to it.
+   * Only required for the {@code Director} hired by
+   * {@link #hireWithoutFragment(Activity, Bundle, Object)}.
+   */
+  public void dispatchRequestPermissionsResult(
+      int requestCode, @NonNull String[] permissions, @NonNull int[] grantResults) {
+    onRequestPermissionsResult(requestCode, permissions, grantResults);
+  }
+
   void requestPermissions(int stageId, @NonNull String[] permissions, int requestCode) {
     // TODO check duplicate request code
     permissionRequestCodeMap.put(requestCode, stageId);
@@ -424,7 +856,7 @@ public abstract class Director implements Iterable<Stage> {
     if (index >= 0) {
       int stageId = permissionRequestCodeMap.valueAt(index);
       permissionRequestCodeMap.removeAt(index);
-      Stage stage = stageMap.get(stageId);
+      Stage stage = get(stageId);
       if (stage != null) {
         stage.onRequestPermissionsResult(requestCode, permissions, grantResults);
       }
@@ -504,6 +936,15 @@ public abstract class Director implements Iterable<Stage> {
   }
 
   void detach(boolean saveViewStateIfNecessary) {
+    detach(saveViewStateIfNecessary, 0);
+  }
+
+  /**
+   * Detaches all {@link Stage}s from the destroyed activity.
+   * {@code changingConfigurations} is the configuration changes
+   * causing the activity recreation, {@code 0} for none.
+   */
+  void detach(boolean saveViewStateIfNecessary, int changingConfigurations) {
     if (DEBUG) {
       if (isStarted) {
         throw new IllegalStateException("This director is started");
@@ -518,7 +959,7 @@ public abstract class Director implements Iterable<Stage> {
 
     for (int i = 0, n = stageMap.size(); i < n; ++i) {
       Stage stage = stageMap.valueAt(i);
-      stage.detach(saveViewStateIfNecessary);
+      stage.detach(saveViewStateIfNecessary, changingConfigurations);
     }
   }
 
@@ -540,11 +981,22 @@ public abstract class Director implements Iterable<Stage> {
 
     isDestroyed = true;
 
+    if (snapshotStore != null) {
+      snapshotStore.cancel(this);
+      snapshotStore = null;
+    }
+
     for (int i = 0, n = stageMap.size(); i < n; ++i) {
       Stage stage = stageMap.valueAt(i);
       stage.destroy();
     }
     stageMap.clear();
+    // The states are dropped, don't wait for them
+    for (int i = 0, n = savedStageExpansions.size(); i < n; i++) {
+      savedStageExpansions.valueAt(i).cancel();
+    }
+    savedStageExpansions.clear();
+    savedStageStates.clear();
   }
 
   void finish(boolean willRecreate) {
@@ -556,6 +1008,12 @@ public abstract class Director implements Iterable<Stage> {
 
     this.isFinishing = true;
 
+    if (!willRecreate && spillOwner != null && savedStateBudget != null) {
+      // The saved state will never be restored
+      savedStateBudget.release(spillOwner);
+      spillOwner = null;
+    }
+
     if (willRecreate) {
       for (int i = 0, n = stageMap.size(); i < n; ++i) {
         Stage stage = stageMap.valueAt(i);
@@ -568,35 +1026,124 @@ public abstract class Director implements Iterable<Stage> {
     return isFinishing;
   }
 
+  /**
+   * Called by {@link SnapshotStore}. Saves the state without side effects
+   * on the hierarchy: no {@link SavedStateBudget}.
+   */
+  void saveSnapshot(Bundle outState) {
+    isSavingSnapshot = true;
+    try {
+      saveInstanceState(outState);
+    } finally {
+      isSavingSnapshot = false;
+    }
+  }
+
   void saveInstanceState(Bundle outState) {
-    ArrayList<Bundle> stageStates = new ArrayList<>(stageMap.size());
+    boolean isRoot = getRootDirector() == this;
+    SavedStateBudget budget = isRoot ? getSavedStateBudget() : null;
+    if (budget != null) {
+      budget.onSaveStarted();
+    }
+
+    ArrayList<Bundle> stageStates =
+        new ArrayList<>(stageMap.size() + savedStageStates.size());
     for (int i = 0, n = stageMap.size(); i < n; ++i) {
       Stage stage = stageMap.valueAt(i);
       Bundle bundle = new Bundle();
       stage.saveInstanceState(bundle);
       stageStates.add(bundle);
     }
+    // Never restored, write them back
+    for (int i = 0, n = savedStageStates.size(); i < n; ++i) {
+      awaitSavedStageExpansion(savedStageStates.keyAt(i));
+      stageStates.add(savedStageStates.valueAt(i));
+    }
     outState.putParcelableArrayList(KEY_STAGE_STATES, stageStates);
+
+    if (isRoot) {
+      // The states written back might reference spilled files
+      ArrayList<String> spilledFiles = SavedStateBudget.getUnreadFiles(restoredSpilledFiles);
+      if (budget != null) {
+        if (spillOwner == null) {
+          spillOwner = UUID.randomUUID().toString();
+        }
+        budget.onSaveFinished(outState, spillOwner, spilledFiles);
+        outState.putString(KEY_SPILL_OWNER, spillOwner);
+      }
+      if (!spilledFiles.isEmpty()) {
+        outState.putStringArrayList(KEY_SPILLED_FILES, spilledFiles);
+      }
+    }
   }
 
-  void restoreInstanceState(@NonNull Bundle savedInstanceState) {
+  /**
+   * Returns the spilled files referenced by the saved state.
+   */
+  @Nullable
+  static ArrayList<String> getSpilledFiles(@NonNull Bundle savedInstanceState) {
+    return savedInstanceState.getStringArrayList(KEY_SPILLED_FILES);
+  }
+
+  /**
+   * Collects class names of all scenes in the saved state, in restoring order.
+   */
+  static void collectSceneClassNames(
+      @NonNull Bundle savedInstanceState, @NonNull Collection<String> classNames) {
     ArrayList<Bundle> stageStates = savedInstanceState.getParcelableArrayList(KEY_STAGE_STATES);
     if (stageStates != null) {
       for (Bundle stageState : stageStates) {
-        Stage stage = new Stage(this);
-        stage.restoreInstanceState(stageState);
+        Stage.collectSceneClassNames(stageState, classNames);
+      }
+    }
+  }
 
-        // Restore stage lifecycle
-        if (isStarted) {
-          stage.start();
-        }
-        if (isResumed) {
-          stage.resume();
-        }
+  /**
+   * Stages are restored when they are asked for by {@link #get(int)}
+   * or {@code direct()}.
+   */
+  void restoreInstanceState(@NonNull Bundle savedInstanceState) {
+    spillOwner = savedInstanceState.getString(KEY_SPILL_OWNER);
+    restoredSpilledFiles = savedInstanceState.getStringArrayList(KEY_SPILLED_FILES);
+
+    ArrayList<Bundle> stageStates = savedInstanceState.getParcelableArrayList(KEY_STAGE_STATES);
+    if (stageStates != null) {
+      for (Bundle stageState : stageStates) {
+        savedStageStates.put(Stage.getSavedId(stageState), stageState);
+      }
+    }
+  }
 
-        int id = stage.getId();
-        stageMap.put(id, stage);
+  /**
+   * Starts unparceling the saved states of the Stages in background.
+   * The Stages restored before the expansions are done fall back to
+   * unparceling synchronously.
+   */
+  void expandSavedStageStates() {
+    for (int i = 0, n = savedStageStates.size(); i < n; i++) {
+      int id = savedStageStates.keyAt(i);
+      if (savedStageExpansions.indexOfKey(id) < 0) {
+        savedStageExpansions.put(id, SavedStateExpansion.start(savedStageStates.valueAt(i)));
       }
     }
   }
+
+  private void awaitSavedStageExpansion(int id) {
+    SavedStateExpansion expansion = savedStageExpansions.get(id);
+    if (expansion != null) {
+      savedStageExpansions.remove(id);
+      expansion.await();
+    }
+  }
+
+  private static class LifecycleListenerRecord {
+
+    private final Scene.LifecycleListener listener;
+    private final int events;
+
+    private LifecycleListenerRecord(Scene.LifecycleListener listener, int events) {
+      this.listener = listener;
+      this.events = events;
+    }
+  }
 }
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2017 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.stage;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A {@code LifecycleDispatcher} holds tasks of a {@link Scene} until the {@code Scene}
+ * reaches the requested state. Only the latest task for each key is kept.
+ */
+final class LifecycleDispatcher {
+
+  private static Handler sMainHandler;
+
+  private final Scene scene;
+  @Nullable
+  private LinkedHashMap<Object, Runnable> startedTasks;
+  @Nullable
+  private LinkedHashMap<Object, Runnable> resumedTasks;
+
+  LifecycleDispatcher(@NonNull Scene scene) {
+    this.scene = scene;
+  }
+
+  void runWhenStarted(@NonNull Object key, @NonNull Runnable task) {
+    if (!isMainThread()) {
+      postToMainThread(key, task, false);
+      return;
+    }
+
+    // A destroyed scene can't be started again
+    if (scene.getLifecycleState().hasDestroyed()) {
+      return;
+    }
+
+    // The held one is outdated
+    if (startedTasks != null) {
+      startedTasks.remove(key);
+    }
+
+    if (scene.getLifecycleState().isStarted()) {
+      task.run();
+    } else {
+      if (startedTasks == null) {
+        startedTasks = new LinkedHashMap<>();
+      }
+      startedTasks.put(key, task);
+    }
+  }
+
+  void runWhenResumed(@NonNull Object key, @NonNull Runnable task) {
+    if (!isMainThread()) {
+      postToMainThread(key, task, true);
+      return;
+    }
+
+    // A destroyed scene can't be started again
+    if (scene.getLifecycleState().hasDestroyed()) {
+      return;
+    }
+
+    // The held one is outdated
+    if (resumedTasks != null) {
+      resumedTasks.remove(key);
+    }
+
+    if (scene.getLifecycleState().isResumed()) {
+      task.run();
+    } else {
+      if (resumedTasks == null) {
+        resumedTasks = new LinkedHashMap<>();
+      }
+      resumedTasks.put(key, task);
+    }
+  }
+
+  void cancel(@NonNull Object key) {
+    if (startedTasks != null) {
+      startedTasks.remove(key);
+    }
+    if (resumedTasks != null) {
+      resumedTasks.remove(key);
+    }
+  }
+
+  void dispatchStarted() {
+    if (startedTasks != null) {
+      dispatch(startedTasks, false);
+    }
+  }
+
+  void dispatchResumed() {
+    if (resumedTasks != null) {
+      dispatch(resumedTasks, true);
+    }
+  }
+
+  private void dispatch(@NonNull LinkedHashMap<Object, Runnable> tasks, boolean resumed) {
+    // A task might change the lifecycle of the scene, check it before each task
+    while (!tasks.isEmpty()) {
+      Scene.LifecycleState state = scene.getLifecycleState();
+      if (resumed ? !state.isResumed() : !state.isStarted()) {
+        break;
+      }
+      Iterator<Map.Entry<Object, Runnable>> iterator = tasks.entrySet().iterator();
+      Runnable task = iterator.next().getValue();
+      iterator.remove();
+      task.run();
+    }
+  }
+
+  void clear() {
+    if (startedTasks != null) {
+      startedTasks.clear();
+    }
+    if (resumedTasks != null) {
+      resumedTasks.clear();
+    }
+  }
+
+  private void postToMainThread(
+      @NonNull final Object key, @NonNull final Runnable task, final boolean resumed) {
+    synchronized (LifecycleDispatcher.class) {
+      if (sMainHandler == null) {
+        sMainHandler = new Handler(Looper.getMainLooper());
+      }
+    }
+    sMainHandler.post(new Runnable() {
+      @Override
+      public void run() {
+        if (resumed) {
+          runWhenResumed(key, task);
+        } else {
+          runWhenStarted(key, task);
+        }
+      }
+    });
+  }
+
+  private static boolean isMainThread() {
+    return Looper.myLooper() == Looper.getMainLooper();
+  }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2017 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hippo.stage;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a {@link Scene} to be created by a generated {@link SceneFactory}
+ * instead of reflection when it's restored.
+ * <p>
+ * The {@code stage-compiler} annotation processor generates a {@code SceneFactory}
+ * for all annotated scenes in the module. The class name of it is set by the processor
+ * option {@code stage.sceneFactory}, {@code com.hippo.stage.generated.StageSceneFactory}
+ * in default. Register it by {@link Director#registerSceneFactory(SceneFactory)}.
+ * <p>
+ * The scene must be public, non-abstract, and have a public constructor with no arguments.
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface RegisterScene {}
@@ -0,0 +1,574 @@
+/*
+ * Copyright 2017 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.stage;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Parcel;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A {@code SavedStateBudget} measures the parcelled size of the saved state
+ * of a {@link Director} hierarchy, and reports the scenes which contribute most.
+ * <p>
+ * If the saved state exceeds the budget, the largest args and view states
+ * are spilled to files in app-private storage, and replaced with references.
+ * The references are resolved when the scenes are restored.
+ * <p>
+ * Each saved state writes a manifest of the spilled files it references,
+ * including the ones referenced by restored states which are written back.
+ * Files referenced by no manifest are deleted after saving, and once at startup
+ * for the files left before process death. The manifest of a {@link Director}
+ * is deleted when its activity finishes for good.
+ *
+ * @see Director#setSavedStateBudget(SavedStateBudget)
+ */
+public class SavedStateBudget {
+
+  private static final String LOG_TAG = SavedStateBudget.class.getSimpleName();
+
+  private static final String SPILLED_SUFFIX = ":spilled";
+  private static final String MANIFEST_SUFFIX = ".manifest";
+
+  // Entries smaller than it aren't worth a file
+  private static final int MIN_SPILL_SIZE = 4 * 1024;
+  // The count of records in the log
+  private static final int LOGGED_RECORDS = 5;
+
+  // Guards spilled files and manifests, the cleanup never sees a file before its manifest
+  private static final Object FILES_LOCK = new Object();
+  private static final AtomicBoolean hasCleanedUpOrphans = new AtomicBoolean();
+  // Spilled files which have been read back, the restored scenes don't need them anymore
+  private static final Set<String> readFiles = Collections.synchronizedSet(new HashSet<String>());
+  // Files referenced by manifests which are going to be written in background
+  private static final List<Collection<String>> heldFiles = new ArrayList<>();
+
+  private final File dir;
+  private final int budget;
+  @Nullable
+  private Listener listener;
+
+  private boolean isSaving;
+  private final List<Record> records = new ArrayList<>();
+
+  /**
+   * @param budget the max parcelled size of the saved state in bytes
+   */
+  public SavedStateBudget(@NonNull Context context, int budget) {
+    this.dir = getDir(context);
+    this.budget = budget;
+    // Files left before process death
+    if (hasCleanedUpOrphans.compareAndSet(false, true)) {
+      scheduleCleanup(dir);
+    }
+  }
+
+  /**
+   * Sets a listener to receive the measurement of each save.
+   * If no listener is set, the largest contributors are logged if the budget is exceeded.
+   */
+  public void setListener(@Nullable Listener listener) {
+    this.listener = listener;
+  }
+
+  /**
+   * Called by the root {@link Director} before saving the hierarchy.
+   */
+  void onSaveStarted() {
+    isSaving = true;
+    records.clear();
+  }
+
+  /**
+   * Called by {@link Scene} after saving its state.
+   */
+  void record(@NonNull Scene scene, @NonNull Bundle outState) {
+    if (isSaving) {
+      records.add(new Record(scene, outState));
+    }
+  }
+
+  /**
+   * Called by the root {@link Director} after saving the hierarchy.
+   *
+   * @param owner the owner of the manifest, kept in the saved state
+   * @param files the spilled files referenced by the saved state,
+   *     the newly spilled ones are added to it
+   */
+  void onSaveFinished(
+      @NonNull Bundle outState, @NonNull String owner, @NonNull List<String> files) {
+    isSaving = false;
+
+    int size = getParcelledSize(outState);
+    Collections.sort(records, new Comparator<Record>() {
+      @Override
+      public int compare(Record o1, Record o2) {
+        return o2.getSize() - o1.getSize();
+      }
+    });
+
+    int referenced = files.size();
+    synchronized (FILES_LOCK) {
+      if (size > budget) {
+        for (Record record : records) {
+          if (size <= budget) {
+            break;
+          }
+          // Spill the larger one first
+          if (record.viewStateSize >= record.argsSize) {
+            size -= record.spillViewState(files);
+            size -= record.spillArgs(files);
+          } else {
+            size -= record.spillArgs(files);
+            size -= record.spillViewState(files);
+          }
+        }
+      }
+      writeManifest(dir, owner, files);
+    }
+    // Files of the previous save might not be referenced anymore
+    scheduleCleanup(dir);
+    boolean hasSpilled = files.size() > referenced;
+
+    List<Record> result = Collections.unmodifiableList(new ArrayList<>(records));
+    records.clear();
+    if (listener != null) {
+      listener.onSaveMeasured(size, budget, result);
+    } else if (size > budget || hasSpilled) {
+      StringBuilder sb = new StringBuilder();
+      sb.append("Saved state is ").append(size).append(" bytes, budget is ").append(budget);
+      for (int i = 0, n = Math.min(LOGGED_RECORDS, result.size()); i < n; i++) {
+        sb.append("\n  ").append(result.get(i));
+      }
+      Log.w(LOG_TAG, sb.toString());
+    }
+  }
+
+  /**
+   * Called by the root {@link Director} if its saved state will never be restored.
+   */
+  void release(@NonNull String owner) {
+    synchronized (FILES_LOCK) {
+      writeManifest(dir, owner, Collections.<String>emptyList());
+    }
+    scheduleCleanup(dir);
+  }
+
+  @NonNull
+  static File getDir(@NonNull Context context) {
+    return new File(new File(context.getApplicationContext().getFilesDir(), "stage"), "spill");
+  }
+
+  /**
+   * Returns the files which haven't been read back.
+   * Only the restored states which aren't restored yet reference them.
+   */
+  @NonNull
+  static ArrayList<String> getUnreadFiles(@Nullable List<String> files) {
+    ArrayList<String> result = new ArrayList<>();
+    if (files != null) {
+      for (String file : files) {
+        if (!readFiles.contains(file)) {
+          result.add(file);
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Writes the spilled files referenced by the saved state of the owner.
+   * The manifest is deleted if there is no file.
+   */
+  static void writeManifest(
+      @NonNull File dir, @NonNull String owner, @NonNull Collection<String> files) {
+    synchronized (FILES_LOCK) {
+      File manifest = new File(dir, owner + MANIFEST_SUFFIX);
+      if (files.isEmpty()) {
+        //noinspection ResultOfMethodCallIgnored
+        manifest.delete();
+        return;
+      }
+
+      //noinspection ResultOfMethodCallIgnored
+      dir.mkdirs();
+      File temp = new File(dir, owner + MANIFEST_SUFFIX + ".tmp");
+      FileOutputStream os = null;
+      try {
+        os = new FileOutputStream(temp);
+        StringBuilder sb = new StringBuilder();
+        for (String file : files) {
+          sb.append(file).append('\n');
+        }
+        os.write(sb.toString().getBytes("UTF-8"));
+        os.getFD().sync();
+        os.close();
+        os = null;
+        if (!temp.renameTo(manifest)) {
+          Log.w(LOG_TAG, "Can't rename manifest");
+        }
+      } catch (IOException e) {
+        Log.w(LOG_TAG, "Can't write manifest", e);
+      } finally {
+        closeQuietly(os);
+      }
+    }
+  }
+
+  /**
+   * Keeps the files from the cleanup until {@link #releaseFiles(Collection)},
+   * the manifest referencing them could be written in background.
+   */
+  static void holdFiles(@NonNull Collection<String> files) {
+    synchronized (heldFiles) {
+      heldFiles.add(files);
+    }
+  }
+
+  static void releaseFiles(@NonNull Collection<String> files) {
+    synchronized (heldFiles) {
+      // Remove the same instance
+      for (int i = heldFiles.size() - 1; i >= 0; i--) {
+        if (heldFiles.get(i) == files) {
+          heldFiles.remove(i);
+          break;
+        }
+      }
+    }
+  }
+
+  private static void scheduleCleanup(@NonNull final File dir) {
+    BackgroundExecutor.get().execute(new Runnable() {
+      @Override
+      public void run() {
+        deleteOrphans(dir);
+      }
+    });
+  }
+
+  /**
+   * Deletes the files referenced by no manifest.
+   */
+  static void deleteOrphans(@NonNull File dir) {
+    synchronized (FILES_LOCK) {
+      File[] files = dir.listFiles();
+      if (files == null) {
+        return;
+      }
+
+      Set<String> referenced = new HashSet<>();
+      for (File file : files) {
+        if (file.getName().endsWith(MANIFEST_SUFFIX) && !readManifest(file, referenced)) {
+          // Not sure which files are referenced
+          return;
+        }
+      }
+      synchronized (heldFiles) {
+        for (Collection<String> held : heldFiles) {
+          referenced.addAll(held);
+        }
+      }
+      for (File file : files) {
+        String name = file.getName();
+        if (!name.endsWith(MANIFEST_SUFFIX) && !referenced.contains(name)) {
+          //noinspection ResultOfMethodCallIgnored
+          file.delete();
+        }
+      }
+    }
+  }
+
+  private static boolean readManifest(@NonNull File manifest, @NonNull Set<String> files) {
+    BufferedReader reader = null;
+    try {
+      reader = new BufferedReader(new InputStreamReader(new FileInputStream(manifest), "UTF-8"));
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (!line.isEmpty()) {
+          files.add(line);
+        }
+      }
+      return true;
+    } catch (IOException e) {
+      Log.w(LOG_TAG, "Can't read manifest", e);
+      return false;
+    } finally {
+      closeQuietly(reader);
+    }
+  }
+
+  // Writes the bundle to a file, returns the file
+  @Nullable
+  private File spill(@NonNull Bundle bundle) {
+    Parcel parcel = Parcel.obtain();
+    byte[] data;
+    try {
+      parcel.writeBundle(bundle);
+      data = parcel.marshall();
+    } finally {
+      parcel.recycle();
+    }
+
+    //noinspection ResultOfMethodCallIgnored
+    dir.mkdirs();
+    File file = new File(dir, UUID.randomUUID().toString());
+    FileOutputStream os = null;
+    try {
+      // It must be on disk before the process might be killed
+      os = new FileOutputStream(file);
+      os.write(data);
+      os.getFD().sync();
+      return file;
+    } catch (IOException e) {
+      Log.w(LOG_TAG, "Can't spill saved state", e);
+      //noinspection ResultOfMethodCallIgnored
+      file.delete();
+      return null;
+    } finally {
+      closeQuietly(os);
+    }
+  }
+
+  /**
+   * Returns the bundle with the key, or the spilled one.
+   */
+  @Nullable
+  static Bundle getBundle(@NonNull Bundle savedState, @NonNull String key) {
+    Bundle bundle = savedState.getBundle(key);
+    if (bundle != null) {
+      return bundle;
+    }
+    String path = savedState.getString(key + SPILLED_SUFFIX);
+    if (path == null) {
+      return null;
+    }
+    File file = new File(path);
+    bundle = read(file);
+    if (bundle != null) {
+      // The scene is restored, it saves the bundle again if necessary
+      readFiles.add(file.getName());
+    }
+    return bundle;
+  }
+
+  @Nullable
+  private static Bundle read(@NonNull File file) {
+    byte[] data;
+    FileInputStream is = null;
+    try {
+      is = new FileInputStream(file);
+      data = new byte[(int) file.length()];
+      int offset = 0;
+      while (offset < data.length) {
+        int n = is.read(data, offset, data.length - offset);
+        if (n < 0) {
+          throw new IOException("Unexpected end of " + file);
+        }
+        offset += n;
+      }
+    } catch (IOException e) {
+      Log.w(LOG_TAG, "Can't read spilled saved state", e);
+      return null;
+    } finally {
+      closeQuietly(is);
+    }
+
+    Parcel parcel = Parcel.obtain();
+    try {
+      parcel.unmarshall(data, 0, data.length);
+      parcel.setDataPosition(0);
+      return parcel.readBundle(SavedStateBudget.class.getClassLoader());
+    } finally {
+      parcel.recycle();
+    }
+  }
+
+  private static int getParcelledSize(@Nullable Bundle bundle) {
+    if (bundle == null) {
+      return 0;
+    }
+    Parcel parcel = Parcel.obtain();
+    try {
+      parcel.writeBundle(bundle);
+      return parcel.dataSize();
+    } finally {
+      parcel.recycle();
+    }
+  }
+
+  private static void closeQuietly(@Nullable java.io.Closeable closeable) {
+    if (closeable != null) {
+      try {
+        closeable.close();
+      } catch (IOException e) {
+        // Ignore
+      }
+    }
+  }
+
+  /**
+   * The measurement of the saved state of a {@link Scene}.
+   */
+  public final class Record {
+
+    private final String sceneClassName;
+    private final int sceneId;
+    @Nullable
+    private final String sceneTag;
+    private final Bundle savedState;
+    private final int argsSize;
+    private final int viewStateSize;
+    private boolean isArgsSpilled;
+    private boolean isViewStateSpilled;
+
+    private Record(@NonNull Scene scene, @NonNull Bundle savedState) {
+      this.sceneClassName = scene.getClass().getName();
+      this.sceneId = scene.getId();
+      this.sceneTag = scene.getTag();
+      this.savedState = savedState;
+      this.argsSize = getParcelledSize(savedState.getBundle(Scene.KEY_ARGS));
+      this.viewStateSize = getParcelledSize(savedState.getBundle(Scene.KEY_VIEW_STATE));
+    }
+
+    private int spillArgs(@NonNull List<String> files) {
+      int spilled = spill(Scene.KEY_ARGS, argsSize, files);
+      isArgsSpilled = spilled > 0;
+      return spilled;
+    }
+
+    private int spillViewState(@NonNull List<String> files) {
+      int spilled = spill(Scene.KEY_VIEW_STATE, viewStateSize, files);
+      isViewStateSpilled = spilled > 0;
+      return spilled;
+    }
+
+    // Returns the reduced size
+    private int spill(@NonNull String key, int size, @NonNull List<String> files) {
+      Bundle bundle = savedState.getBundle(key);
+      if (bundle == null || size < MIN_SPILL_SIZE) {
+        return 0;
+      }
+      File file = SavedStateBudget.this.spill(bundle);
+      if (file == null) {
+        return 0;
+      }
+      files.add(file.getName());
+      String path = file.getPath();
+      savedState.remove(key);
+      savedState.putString(key + SPILLED_SUFFIX, path);
+      // Roughly, the reference is a short string
+      return size - 2 * path.length();
+    }
+
+    /**
+     * Returns the class name of the scene.
+     */
+    @NonNull
+    public String getSceneClassName() {
+      return sceneClassName;
+    }
+
+    /**
+     * Returns the id of the scene.
+     */
+    public int getSceneId() {
+      return sceneId;
+    }
+
+    /**
+     * Returns the tag of the scene.
+     */
+    @Nullable
+    public String getSceneTag() {
+      return sceneTag;
+    }
+
+    /**
+     * Returns the parcelled size of the args in bytes.
+     */
+    public int getArgsSize() {
+      return argsSize;
+    }
+
+    /**
+     * Returns the parcelled size of the view state in bytes.
+     */
+    public int getViewStateSize() {
+      return viewStateSize;
+    }
+
+    /**
+     * Returns the parcelled size of the args and the view state in bytes.
+     */
+    public int getSize() {
+      return argsSize + viewStateSize;
+    }
+
+    /**
+     * Returns {@code true} if the args is spilled to a file.
+     */
+    public boolean isArgsSpilled() {
+      return isArgsSpilled;
+    }
+
+    /**
+     * Returns {@code true} if the view state is spilled to a file.
+     */
+    public boolean isViewStateSpilled() {
+      return isViewStateSpilled;
+    }
+
+    @Override
+    public String toString() {
+      return sceneClassName + "(id=" + sceneId + ", tag=" + sceneTag
+          + ") args=" + argsSize + (isArgsSpilled ? " (spilled)" : "")
+          + " view_state=" + viewStateSize + (isViewStateSpilled ? " (spilled)" : "");
+    }
+  }
+
+  /**
+   * Receives the measurement of saved states.
+   */
+  public interface Listener {
+
+    /**
+     * Called after the hierarchy is saved.
+     *
+     * @param size the parcelled size of the saved state after spilling
+     * @param budget the budget
+     * @param records the records of the saved scenes, the largest first
+     */
+    void onSaveMeasured(int size, int budget, @NonNull List<Record> records);
+  }
+}
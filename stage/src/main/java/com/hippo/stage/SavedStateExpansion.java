@@ -0,0 +1,156 @@
+/*
+ * Copyright 2017 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.stage;
+
+import android.os.Bundle;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.SparseArray;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Unparcels a saved {@link Stage} state tree and loads the scene classes in it
+ * on the background executor.
+ * <p>
+ * The {@code Bundle} mustn't be touched by other threads until {@link #await()} returns.
+ * If the expansion hasn't started when {@code await()} is called, it never starts,
+ * the caller unparcels the {@code Bundle} on demand as usual.
+ */
+final class SavedStateExpansion implements Runnable {
+
+  private final Bundle state;
+  // Whether the Bundle is claimed by the background thread or the caller of await()
+  private final AtomicBoolean claimed = new AtomicBoolean();
+  private Future<?> future;
+  // The error thrown while unparceling, visible to await() after the future is done
+  private Throwable error;
+
+  private SavedStateExpansion(@NonNull Bundle state) {
+    this.state = state;
+  }
+
+  @NonNull
+  static SavedStateExpansion start(@NonNull Bundle state) {
+    SavedStateExpansion expansion = new SavedStateExpansion(state);
+    expansion.future = BackgroundExecutor.get().submit(expansion);
+    return expansion;
+  }
+
+  @Override
+  public void run() {
+    if (!claimed.compareAndSet(false, true)) {
+      // The caller needs it now
+      return;
+    }
+
+    Set<String> classNames = new LinkedHashSet<>();
+    try {
+      expand(state);
+      Stage.collectSceneClassNames(state, classNames);
+    } catch (Throwable e) {
+      // A failed Bundle keeps what is read and drops the parcel,
+      // the caller would get a truncated state silently.
+      error = e;
+      return;
+    }
+
+    loadClasses(new ArrayList<>(classNames));
+  }
+
+  // Loads the classes in parallel, they don't touch the Bundle
+  private static void loadClasses(@NonNull final List<String> classNames) {
+    final int taskCount = Math.min(BackgroundExecutor.POOL_SIZE, classNames.size());
+    ExecutorService executor = BackgroundExecutor.get();
+    for (int i = 0; i < taskCount; i++) {
+      final int start = i;
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          for (int j = start, n = classNames.size(); j < n; j += taskCount) {
+            try {
+              Utils.loadClass(classNames.get(j));
+            } catch (Throwable e) {
+              // Let the main thread report it when it creates the scene
+            }
+          }
+        }
+      });
+    }
+  }
+
+  private static void expand(@Nullable Object value) {
+    if (value instanceof Bundle) {
+      Bundle bundle = (Bundle) value;
+      // keySet() unparcels the Bundle
+      for (String key : bundle.keySet()) {
+        expand(bundle.get(key));
+      }
+    } else if (value instanceof List) {
+      for (Object item : (List<?>) value) {
+        expand(item);
+      }
+    } else if (value instanceof SparseArray) {
+      SparseArray<?> array = (SparseArray<?>) value;
+      for (int i = 0, n = array.size(); i < n; i++) {
+        expand(array.valueAt(i));
+      }
+    }
+  }
+
+  /**
+   * Waits for the expansion if it's running, or stops it from starting.
+   * The {@code Bundle} could be used by the caller after it returns.
+   * The error thrown while unparceling is rethrown.
+   */
+  void await() {
+    if (claimed.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      // run() catches everything
+    }
+
+    if (error instanceof RuntimeException) {
+      throw (RuntimeException) error;
+    } else if (error instanceof Error) {
+      throw (Error) error;
+    } else if (error != null) {
+      throw new RuntimeException(error);
+    }
+  }
+
+  /**
+   * Stops the expansion from starting, doesn't wait for it if it's running.
+   * The {@code Bundle} mustn't be used after it.
+   */
+  void cancel() {
+    // A running one goes on, nobody touches the Bundle anymore
+    claimed.set(true);
+    future.cancel(false);
+  }
+}
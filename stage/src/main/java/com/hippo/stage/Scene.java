@@ -24,6 +24,7 @@ import android.app.Activity;
 import android.app.Application;
 import android.content.Context;
 import android.content.Intent;
+import android.content.MutableContextWrapper;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Parcelable;
@@ -32,6 +33,7 @@ import android.support.annotation.IntDef;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.annotation.RequiresApi;
+import android.support.annotation.WorkerThread;
 import android.util.SparseArray;
 import android.view.ContextThemeWrapper;
 import android.view.LayoutInflater;
@@ -40,7 +42,11 @@ import android.view.ViewGroup;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
 
 /**
  * A {@code Scene} manages a portion of the UI.
@@ -53,6 +59,11 @@ public abstract class Scene {
 
   public static final int INVALID_ID = 0;
 
+  /**
+   * The default value of {@link #getPrepareTimeout()}.
+   */
+  public static final long DEFAULT_PREPARE_TIMEOUT = 5000;
+
   @IntDef({TRANSPARENT, TRANSLUCENT, OPAQUE})
   @Retention(RetentionPolicy.SOURCE)
   public @interface Opacity {}
@@ -71,15 +82,24 @@ public abstract class Scene {
 
   private static final String KEY_ID = "Scene:id";
   private static final String KEY_TAG = "Scene:tag";
-  private static final String KEY_ARGS = "Scene:args";
+  static final String KEY_ARGS = "Scene:args";
   private static final String KEY_WILL_RETAIN_VIEW = "Scene:will_retain_view";
   private static final String KEY_OPACITY = "Scene:opacity";
   private static final String KEY_THEME = "Scene:theme";
   private static final String KEY_TARGET = "Scene:target";
-  private static final String KEY_VIEW_STATE = "Scene:view_state";
+  static final String KEY_VIEW_STATE = "Scene:view_state";
   private static final String KEY_VIEW_STATE_HIERARCHY = "Scene:view_state:hierarchy";
   private static final String KEY_VIEW_STATE_BUNDLE = "Scene:view_state:bundle";
   private static final String KEY_CHILD_DIRECTOR = "Scene:child_director";
+  // The compact encoding of id, tag, will retain view, opacity, theme and target
+  private static final String KEY_COMPACT = "Scene:compact";
+
+  // Flags of the compact encoding, followed by varint id, tag, theme and target
+  private static final int COMPACT_OPACITY_MASK = 0x3;
+  private static final int COMPACT_WILL_RETAIN_VIEW = 1 << 2;
+  private static final int COMPACT_HAS_TAG = 1 << 3;
+  private static final int COMPACT_HAS_THEME = 1 << 4;
+  private static final int COMPACT_HAS_TARGET = 1 << 5;
 
   private Stage stage;
   // The id from saveInstanceState Bundle
@@ -94,6 +114,11 @@ public abstract class Scene {
   private int target = INVALID_ID;
 
   private Context context;
+  // The base context of views, swapped to the new activity if the view is kept across recreation
+  @Nullable
+  private MutableContextWrapper hostContext;
+  // Whether the view is kept for the recreated activity
+  private boolean isViewKept;
   private View view;
   private Bundle viewState;
 
@@ -103,11 +128,34 @@ public abstract class Scene {
 
   private SceneHostedDirector childDirector;
 
+  // The stage which is running onPrepare() for this scene
+  private Stage preparingStage;
+  private boolean isPrepared;
+  private Object preparedResult;
+
+  // It could be created on any thread
+  private volatile LifecycleDispatcher lifecycleDispatcher;
+  // It could be created on any thread
+  private volatile SceneExecutor backgroundExecutor;
+
+  private boolean isCurtainPostponed;
+  private long curtainPostponeTimeout;
+
+  // Whether the view is covered by the top scene, and the view flags before covered
+  private boolean isCovered;
+  private int savedImportantForAccessibility;
+  private int savedDescendantFocusability;
+
+  // The last saved state, reused until the state might be changed
+  @Nullable
+  private Bundle lastSavedState;
+  private boolean isLastSavedStateCompact;
+
   private final List<LifecycleListener> lifecycleListeners = new ArrayList<>();
 
   @NonNull
   static Scene newInstance(String className, @NonNull Bundle bundle) {
-    Scene scene = Utils.newInstance(className);
+    Scene scene = Utils.newScene(className);
     scene.restoreInstanceState(bundle);
     return scene;
   }
@@ -254,6 +302,7 @@ public abstract class Scene {
    */
   public final void setTheme(int theme) {
     this.theme = theme;
+    invalidateSavedState();
   }
 
   /**
@@ -265,6 +314,25 @@ public abstract class Scene {
     return theme;
   }
 
+  /**
+   * Returns the configuration changes which this {@code Scene} handles itself,
+   * a combination of {@code ActivityInfo.CONFIG_*}. {@code 0} in default.
+   * <p>
+   * If the {@link Activity} is recreated only for the configuration changes
+   * it handles, the view of this {@code Scene} is kept across the recreation.
+   * It's attached to the new {@code Activity} without
+   * {@link #onCreateView(LayoutInflater, ViewGroup)} called again,
+   * so the {@code Scene} should update the view for the new configuration
+   * in {@link #onAttachView(View)}.
+   * <p>
+   * The view is inflated with a context wrapper whose base context is swapped
+   * to the new {@code Activity}, so the old one isn't leaked.
+   * The value is checked before {@link #onCreateView(LayoutInflater, ViewGroup)}.
+   */
+  protected int getHandledConfigChanges() {
+    return 0;
+  }
+
   /**
    * Sets the target scene. {@code null} to clear target.
    * The target scene should be stage before it called.
@@ -277,6 +345,7 @@ public abstract class Scene {
     } else {
       target = INVALID_ID;
     }
+    invalidateSavedState();
   }
 
   /**
@@ -347,6 +416,139 @@ public abstract class Scene {
     lifecycleListeners.remove(lifecycleListener);
   }
 
+  /**
+   * Runs the task on main thread when this {@code Scene} is started.
+   * If it's started now and it's called on main thread, the task runs immediately.
+   * Otherwise, the task is held until {@link #onStart()}. Only the latest task for each
+   * {@code key} is held, the older one is dropped.
+   * <p>
+   * Held tasks are dropped when the view is destroyed.
+   * It's useful to apply data updates to the view only when it's visible.
+   *
+   * @see #runWhenResumed(Object, Runnable)
+   * @see #cancelPendingTask(Object)
+   */
+  public final void runWhenStarted(@NonNull Object key, @NonNull Runnable task) {
+    getLifecycleDispatcher().runWhenStarted(key, task);
+  }
+
+  /**
+   * Same as {@link #runWhenStarted(Object, Runnable)}, but waits for {@link #onResume()}.
+   *
+   * @see #runWhenStarted(Object, Runnable)
+   * @see #cancelPendingTask(Object)
+   */
+  public final void runWhenResumed(@NonNull Object key, @NonNull Runnable task) {
+    getLifecycleDispatcher().runWhenResumed(key, task);
+  }
+
+  /**
+   * Drops the held task for the {@code key}.
+   * It must be called on main thread.
+   *
+   * @see #runWhenStarted(Object, Runnable)
+   * @see #runWhenResumed(Object, Runnable)
+   */
+  public final void cancelPendingTask(@NonNull Object key) {
+    if (lifecycleDispatcher != null) {
+      lifecycleDispatcher.cancel(key);
+    }
+  }
+
+  @NonNull
+  private LifecycleDispatcher getLifecycleDispatcher() {
+    LifecycleDispatcher dispatcher = lifecycleDispatcher;
+    if (dispatcher == null) {
+      synchronized (this) {
+        dispatcher = lifecycleDispatcher;
+        if (dispatcher == null) {
+          lifecycleDispatcher = dispatcher = new LifecycleDispatcher(this);
+        }
+      }
+    }
+    return dispatcher;
+  }
+
+  /**
+   * Returns an {@link Executor} which runs tasks on background threads.
+   * <p>
+   * Tasks are prioritized by the visibility of this {@code Scene}.
+   * Tasks of the top {@code Scene} run first, then {@code Scene}s under
+   * a dialog, then {@code Scene}s with detached view, then {@code Scene}s without view.
+   * The thread count is bounded and shared by all {@code Scene}s, but not with
+   * the library's internal work.
+   * <p>
+   * All pending tasks are cancelled and running tasks are interrupted
+   * when this {@code Scene} is destroyed.
+   *
+   * @see #submitBackgroundTask(Callable)
+   */
+  @NonNull
+  public final Executor getBackgroundExecutor() {
+    return getSceneExecutor();
+  }
+
+  /**
+   * Submits a task to {@link #getBackgroundExecutor()}.
+   * The returned {@link Future} could be used to cancel the task.
+   *
+   * @see #getBackgroundExecutor()
+   */
+  @NonNull
+  public final <T> Future<T> submitBackgroundTask(@NonNull Callable<T> task) {
+    return getSceneExecutor().submit(task);
+  }
+
+  @NonNull
+  private SceneExecutor getSceneExecutor() {
+    SceneExecutor executor = backgroundExecutor;
+    if (executor == null) {
+      synchronized (this) {
+        executor = backgroundExecutor;
+        if (executor == null) {
+          if (lifecycleState.hasDestroyed()) {
+            throw new IllegalStateException("Can't run background tasks for a destroyed Scene");
+          }
+          backgroundExecutor = executor = new SceneExecutor(getBackgroundPriority());
+        }
+      }
+    }
+    return executor;
+  }
+
+  @SceneExecutor.Priority
+  private int getBackgroundPriority() {
+    if (lifecycleState.isResumed()) {
+      return SceneExecutor.PRIORITY_TOP;
+    } else if (lifecycleState.isStarted()) {
+      return SceneExecutor.PRIORITY_VISIBLE;
+    } else if (lifecycleState.isViewCreated()) {
+      return SceneExecutor.PRIORITY_DETACHED;
+    } else {
+      return SceneExecutor.PRIORITY_HIBERNATED;
+    }
+  }
+
+  private void updateLifecycleState(@LifecycleState.State int state) {
+    lifecycleState.updateState(state);
+
+    SceneExecutor executor;
+    if (lifecycleState.hasDestroyed()) {
+      // Sync with getSceneExecutor(), no executor can be created after it
+      synchronized (this) {
+        executor = backgroundExecutor;
+      }
+      if (executor != null) {
+        executor.shutdown();
+      }
+    } else {
+      executor = backgroundExecutor;
+      if (executor != null) {
+        executor.setPriority(getBackgroundPriority());
+      }
+    }
+  }
+
   /**
    * Returns {@code true} if this {@code Scene} will be recreated.
    * It works like {@link Activity#isFinishing()}, but is opposite.
@@ -365,6 +567,9 @@ public abstract class Scene {
     // No need to pop a finishing scene
     if (!willDestroy && stage != null) {
       stage.popScene(this);
+    } else if (preparingStage != null) {
+      // Not pushed yet, just cancel preparing
+      preparingStage.cancelPreparing(this);
     }
   }
 
@@ -396,6 +601,57 @@ public abstract class Scene {
     return stage != null ? stage.requestCurtain(upper, lower) : null;
   }
 
+  /**
+   * Postpones the {@link Curtain} which shows this {@code Scene},
+   * until {@link #startPostponedCurtain()} is called or the timeout is reached.
+   * It's useful if the content of this {@code Scene} is loaded asynchronously.
+   * <p>
+   * It must be called before the {@code Curtain} is executed, namely,
+   * in {@link #onCreate(Bundle)}, {@link #onCreateView(LayoutInflater, ViewGroup)},
+   * {@link #onAttachView(View)}, {@link #onStart()} or {@link #onResume()}.
+   * <p>
+   * While the {@code Curtain} is postponed, the view of this {@code Scene} is attached
+   * but invisible, the old scenes are still drawn,
+   * and {@link Stage#hasCurtainRunning()} returns {@code true}.
+   *
+   * @param timeout the maximum time in milliseconds to wait, must be positive
+   * @see #startPostponedCurtain()
+   */
+  public final void postponeCurtain(long timeout) {
+    if (timeout <= 0) {
+      throw new IllegalArgumentException("The timeout must be positive: " + timeout);
+    }
+    isCurtainPostponed = true;
+    curtainPostponeTimeout = timeout;
+  }
+
+  /**
+   * Starts the {@link Curtain} postponed by {@link #postponeCurtain(long)}.
+   * It's a no-op if the {@code Curtain} isn't postponed.
+   *
+   * @see #postponeCurtain(long)
+   */
+  public final void startPostponedCurtain() {
+    if (isCurtainPostponed) {
+      isCurtainPostponed = false;
+      if (stage != null) {
+        stage.onPostponedCurtainReady();
+      }
+    }
+  }
+
+  boolean isCurtainPostponed() {
+    return isCurtainPostponed;
+  }
+
+  long getCurtainPostponeTimeout() {
+    return curtainPostponeTimeout;
+  }
+
+  void clearCurtainPostponed() {
+    isCurtainPostponed = false;
+  }
+
   int requireSceneId() {
     return stage.requireSceneId();
   }
@@ -438,6 +694,7 @@ public abstract class Scene {
       if (willDestroy) {
         childDirector.finish(willRecreate);
       }
+      invalidateSavedState();
     }
 
     return childDirector;
@@ -601,6 +858,99 @@ public abstract class Scene {
     }
   }
 
+  /**
+   * Returns the value returned by {@link #onPrepare(Bundle)}.
+   * It returns {@code null} if {@link #willPrepare()} returns {@code false},
+   * {@code onPrepare()} timed out, or this {@code Scene} is restored from saved state.
+   */
+  @Nullable
+  protected final Object getPreparedResult() {
+    return preparedResult;
+  }
+
+  boolean isPrepared() {
+    return isPrepared;
+  }
+
+  /**
+   * Returns a copy of args for {@link #onPrepare(Bundle)},
+   * it might still run after {@link #onCreate(Bundle)}.
+   */
+  @NonNull
+  Bundle startPreparing(@NonNull Stage stage) {
+    preparingStage = stage;
+    // Ensure args is non-null
+    if (args == null) {
+      args = new Bundle();
+    }
+    return new Bundle(args);
+  }
+
+  @WorkerThread
+  @Nullable
+  Object prepare(@NonNull Bundle args) {
+    return onPrepare(args);
+  }
+
+  void finishPreparing(@Nullable Object result) {
+    preparingStage = null;
+    isPrepared = true;
+    preparedResult = result;
+  }
+
+  void cancelPreparing() {
+    preparingStage = null;
+  }
+
+  /**
+   * Prunes the attached view from accessibility, focus and touch traversal
+   * if it's covered by the top scene, or restores it.
+   */
+  void setCovered(@NonNull ViewGroup container, boolean covered) {
+    if (view == null || isCovered == covered) {
+      return;
+    }
+    isCovered = covered;
+
+    if (covered) {
+      if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+        savedImportantForAccessibility = view.getImportantForAccessibility();
+        view.setImportantForAccessibility(View.IMPORTANT_FOR_ACCESSIBILITY_NO_HIDE_DESCENDANTS);
+      }
+      if (view instanceof ViewGroup) {
+        ViewGroup group = (ViewGroup) view;
+        savedDescendantFocusability = group.getDescendantFocusability();
+        group.setDescendantFocusability(ViewGroup.FOCUS_BLOCK_DESCENDANTS);
+      }
+      if (view.hasFocus()) {
+        view.clearFocus();
+      }
+    } else {
+      if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+        view.setImportantForAccessibility(savedImportantForAccessibility);
+      }
+      if (view instanceof ViewGroup) {
+        ((ViewGroup) view).setDescendantFocusability(savedDescendantFocusability);
+      }
+    }
+
+    if (container instanceof StageLayout) {
+      ((StageLayout) container).setChildTouchBlocked(view, covered);
+    }
+  }
+
+  // Dispatches the event to lifecycle listeners of the root director
+  private void dispatchRootLifecycleEvent(
+      @LifecycleListener.Event int event, @Nullable Object arg) {
+    Director director = stage != null ? stage.getDirector() : null;
+    if (director != null) {
+      director = director.getRootDirector();
+      if (director.hasLifecycleListener(event)) {
+        director.dispatchLifecycleEvent(event, this, arg);
+      }
+    }
+  }
+
   void create(@NonNull Stage stage, int id) {
     if (this.stage != null) {
       throw new IllegalStateException("This Scene has been performed, can't perform is twice: "
@@ -619,15 +969,22 @@ public abstract class Scene {
       args = new Bundle();
     }
 
+    Director director = stage.getDirector();
+    if (director != null) {
+      director.retainArgsHandles(args);
+    }
+
+    SceneStates.restoreState(this, args);
     onCreate(args);
 
-    lifecycleState.updateState(LifecycleState.STATE_CREATED);
+    updateLifecycleState(LifecycleState.STATE_CREATED);
 
     if (!lifecycleListeners.isEmpty()) {
       for (LifecycleListener listener : new ArrayList<>(lifecycleListeners)) {
         listener.onCreate(this, args);
       }
     }
+    dispatchRootLifecycleEvent(LifecycleListener.EVENT_CREATE, args);
   }
 
   @NonNull
@@ -643,11 +1000,22 @@ public abstract class Scene {
       onPreCreateView(parent.getContext());
 
       context = parent.getContext();
+      boolean swappable = getHandledConfigChanges() != 0;
+      if (swappable) {
+        hostContext = new MutableContextWrapper(context);
+        context = hostContext;
+      }
       if (theme != 0) {
         context = new ContextThemeWrapper(context, theme);
       }
 
-      view = onCreateView(LayoutInflater.from(context), parent);
+      LayoutInflater inflater = LayoutInflater.from(context);
+      if (swappable && inflater.getContext() != context) {
+        // Views must hold the swappable context instead of the activity
+        inflater = inflater.cloneInContext(context);
+      }
+
+      view = onCreateView(inflater, parent);
       if (view == parent) {
         throw new IllegalStateException("onCreateView() returned the parent ViewGroup. "
             + "Perhaps you forgot to pass false for "
@@ -656,19 +1024,41 @@ public abstract class Scene {
 
       onPostCreateView(view);
 
-      lifecycleState.updateState(LifecycleState.STATE_VIEW_CREATED);
+      updateLifecycleState(LifecycleState.STATE_VIEW_CREATED);
 
       if (!lifecycleListeners.isEmpty()) {
         for (LifecycleListener listener : new ArrayList<>(lifecycleListeners)) {
           listener.onCreateView(this);
         }
       }
+      dispatchRootLifecycleEvent(LifecycleListener.EVENT_CREATE_VIEW, null);
 
       restoreViewState(view);
+    } else if (hostContext != null) {
+      // The view might be kept for a new activity
+      hostContext.setBaseContext(parent.getContext());
+      isViewKept = false;
     }
     return view;
   }
 
+  /**
+   * Returns {@code true} if the view could be kept across the activity recreation
+   * caused by the configuration changes.
+   */
+  boolean canKeepView(int changingConfigurations) {
+    return view != null && hostContext != null && changingConfigurations != 0
+        && (changingConfigurations & ~getHandledConfigChanges()) == 0;
+  }
+
+  /**
+   * Keeps the view in next {@link #detachView(ViewGroup, boolean, boolean)}
+   * for the recreated activity.
+   */
+  void keepView() {
+    isViewKept = true;
+  }
+
   void attachView(ViewGroup container) {
     attachView(container, container.getChildCount());
   }
@@ -686,13 +1076,14 @@ public abstract class Scene {
 
     onAttachView(view);
 
-    lifecycleState.updateState(LifecycleState.STATE_VIEW_ATTACHED);
+    updateLifecycleState(LifecycleState.STATE_VIEW_ATTACHED);
 
     if (!lifecycleListeners.isEmpty()) {
       for (LifecycleListener listener : new ArrayList<>(lifecycleListeners)) {
         listener.onAttachView(this, view);
       }
     }
+    dispatchRootLifecycleEvent(LifecycleListener.EVENT_ATTACH_VIEW, view);
   }
 
   void start() {
@@ -702,45 +1093,62 @@ public abstract class Scene {
 
     onStart();
 
-    lifecycleState.updateState(LifecycleState.STATE_STARTED);
+    updateLifecycleState(LifecycleState.STATE_STARTED);
 
     if (!lifecycleListeners.isEmpty()) {
       for (LifecycleListener listener : new ArrayList<>(lifecycleListeners)) {
         listener.onStart(this);
       }
     }
+    dispatchRootLifecycleEvent(LifecycleListener.EVENT_START, null);
+
+    if (lifecycleDispatcher != null) {
+      lifecycleDispatcher.dispatchStarted();
+    }
   }
 
   void resume() {
+    // The user could interact with it, so its state might change
+    invalidateSavedState();
+
     if (childDirector != null) {
       childDirector.resume();
     }
 
     onResume();
 
-    lifecycleState.updateState(LifecycleState.STATE_RESUMED);
+    updateLifecycleState(LifecycleState.STATE_RESUMED);
 
     if (!lifecycleListeners.isEmpty()) {
       for (LifecycleListener listener : new ArrayList<>(lifecycleListeners)) {
         listener.onResume(this);
       }
     }
+    dispatchRootLifecycleEvent(LifecycleListener.EVENT_RESUME, null);
+
+    if (lifecycleDispatcher != null) {
+      lifecycleDispatcher.dispatchResumed();
+    }
   }
 
   void pause() {
+    // The state saved while resumed might be changed after it
+    invalidateSavedState();
+
     if (childDirector != null) {
       childDirector.pause();
     }
 
     onPause();
 
-    lifecycleState.updateState(LifecycleState.STATE_PAUSED);
+    updateLifecycleState(LifecycleState.STATE_PAUSED);
 
     if (!lifecycleListeners.isEmpty()) {
       for (LifecycleListener listener : new ArrayList<>(lifecycleListeners)) {
         listener.onPause(this);
       }
     }
+    dispatchRootLifecycleEvent(LifecycleListener.EVENT_PAUSE, null);
   }
 
   void stop() {
@@ -750,13 +1158,14 @@ public abstract class Scene {
 
     onStop();
 
-    lifecycleState.updateState(LifecycleState.STATE_STOPPED);
+    updateLifecycleState(LifecycleState.STATE_STOPPED);
 
     if (!lifecycleListeners.isEmpty()) {
       for (LifecycleListener listener : new ArrayList<>(lifecycleListeners)) {
         listener.onStop(this);
       }
     }
+    dispatchRootLifecycleEvent(LifecycleListener.EVENT_STOP, null);
   }
 
   private void destroyView(boolean saveViewStateIfNecessary) {
@@ -766,21 +1175,28 @@ public abstract class Scene {
 
     onDestroyView(view);
 
-    lifecycleState.updateState(LifecycleState.STATE_VIEW_DESTROYED);
+    updateLifecycleState(LifecycleState.STATE_VIEW_DESTROYED);
 
     if (!lifecycleListeners.isEmpty()) {
       for (LifecycleListener listener : new ArrayList<>(lifecycleListeners)) {
         listener.onDestroyView(this, view);
       }
     }
+    dispatchRootLifecycleEvent(LifecycleListener.EVENT_DESTROY_VIEW, view);
 
     view = null;
     context = null;
+    hostContext = null;
+    isViewKept = false;
+
+    if (lifecycleDispatcher != null) {
+      lifecycleDispatcher.clear();
+    }
   }
 
   private void destroy() {
     if (DEBUG) {
-      if (!willRetainView) {
+      if (!willRetainView && !isViewKept) {
         if (view != null) {
           throw new IllegalStateException("view != null");
         }
@@ -798,13 +1214,20 @@ public abstract class Scene {
 
     onDestroy();
 
-    lifecycleState.updateState(LifecycleState.STATE_DESTROYED);
+    updateLifecycleState(LifecycleState.STATE_DESTROYED);
 
     if (!lifecycleListeners.isEmpty()) {
       for (LifecycleListener listener : new ArrayList<>(lifecycleListeners)) {
         listener.onDestroy(this);
       }
     }
+    dispatchRootLifecycleEvent(LifecycleListener.EVENT_DESTROY, null);
+
+    // The args is reused by the recreated scene
+    Director director = stage != null ? stage.getDirector() : null;
+    if (director != null && args != null && !willRecreate) {
+      director.releaseArgsHandles(args);
+    }
 
     stage = null;
   }
@@ -832,27 +1255,36 @@ public abstract class Scene {
 
     // If retaining view, no need to recreate view before saveViewState() called,
     // no need to restore view state, no need to save view state.
-    if (!willRetainView && saveViewStateIfNecessary) {
+    // If finishing, the state is never used.
+    if (!willRetainView && !willDestroy && saveViewStateIfNecessary) {
       saveViewState(view);
     }
 
     if (view.getParent() != container) {
       throw new IllegalStateException("Don't detach view by yourself");
     }
+    // Restore view flags, it might be attached as the top scene next time
+    setCovered(container, false);
     container.removeView(view);
+    // The postponement only works for the attaching
+    isCurtainPostponed = false;
 
     onDetachView(view);
 
-    lifecycleState.updateState(LifecycleState.STATE_VIEW_DETACHED);
+    updateLifecycleState(LifecycleState.STATE_VIEW_DETACHED);
 
     if (!lifecycleListeners.isEmpty()) {
       for (LifecycleListener listener : new ArrayList<>(lifecycleListeners)) {
         listener.onDetachView(this, view);
       }
     }
+    dispatchRootLifecycleEvent(LifecycleListener.EVENT_DETACH_VIEW, view);
 
-    if (!willRetainView || forceDestroyView) {
+    if (forceDestroyView || (!willRetainView && !isViewKept)) {
       destroyView(saveViewStateIfNecessary);
+    } else if (isViewKept && hostContext != null) {
+      // Release the destroyed activity
+      hostContext.setBaseContext(hostContext.getApplicationContext());
     }
 
     if (willDestroy) {
@@ -861,6 +1293,7 @@ public abstract class Scene {
   }
 
   private void saveViewState(@NonNull View view) {
+    invalidateSavedState();
     viewState = new Bundle(getClass().getClassLoader());
 
     SparseArray<Parcelable> hierarchyState = new SparseArray<>();
@@ -869,6 +1302,7 @@ public abstract class Scene {
 
     Bundle stateBundle = new Bundle(getClass().getClassLoader());
     onSaveViewState(view, stateBundle);
+    SceneStates.saveViewState(this, stateBundle);
     viewState.putBundle(KEY_VIEW_STATE_BUNDLE, stateBundle);
 
     if (!lifecycleListeners.isEmpty()) {
@@ -876,6 +1310,7 @@ public abstract class Scene {
         listener.onSaveViewState(this, viewState);
       }
     }
+    dispatchRootLifecycleEvent(LifecycleListener.EVENT_SAVE_VIEW_STATE, viewState);
   }
 
   private void restoreViewState(@NonNull View view) {
@@ -885,6 +1320,7 @@ public abstract class Scene {
       Bundle savedViewState = viewState.getBundle(KEY_VIEW_STATE_BUNDLE);
       if (savedViewState != null) {
         savedViewState.setClassLoader(getClass().getClassLoader());
+        SceneStates.restoreViewState(this, savedViewState);
         onRestoreViewState(view, savedViewState);
       }
 
@@ -893,26 +1329,117 @@ public abstract class Scene {
           listener.onRestoreViewState(this, viewState);
         }
       }
+      dispatchRootLifecycleEvent(LifecycleListener.EVENT_RESTORE_VIEW_STATE, viewState);
     }
   }
 
-  Bundle saveInstanceState() {
-    onUpdateArgs(args);
+  /**
+   * Tells the library that the state of this {@code Scene} has been changed,
+   * {@link #onUpdateArgs(Bundle)} and {@link #onSaveViewState(View, Bundle)}
+   * are called in next saving. It only matters if {@link #willReuseSavedState()}
+   * returns {@code true}.
+   * <p>
+   * The state is assumed unchanged between two savings if the {@code Scene}
+   * isn't resumed, pushed or popped in its child {@code Director}.
+   * Call it if the args or the view is updated in other cases,
+   * like data loaded in background.
+   */
+  public final void invalidateSavedState() {
+    if (lastSavedState == null) {
+      return;
+    }
+    lastSavedState = null;
+    // The state of the host scene contains this scene
+    Director director = stage != null ? stage.getDirector() : null;
+    if (director != null) {
+      director.onSavedStateChanged();
+    }
+  }
 
-    if (!lifecycleListeners.isEmpty()) {
-      for (LifecycleListener listener : new ArrayList<>(lifecycleListeners)) {
-        listener.onUpdateArgs(this, args);
+  /**
+   * Returns {@code true} if the last saved state of this {@code Scene} could be reused
+   * until it might change, see {@link #invalidateSavedState()}.
+   * It saves the work of saving for a deep stack, but the {@code Scene} must call
+   * {@code invalidateSavedState()} if its state is updated while it isn't resumed.
+   * {@code false} in default, the state is saved every time.
+   */
+  protected boolean willReuseSavedState() {
+    return false;
+  }
+
+  /**
+   * Returns the saved state of this {@code Scene}.
+   * The last one is reused if {@link #willReuseSavedState()} and the state isn't changed.
+   * It's never reused while resumed, the user might be changing it.
+   */
+  Bundle saveInstanceState(boolean compact) {
+    Director director = stage != null ? stage.getDirector() : null;
+    SavedStateBudget budget = director != null
+        ? director.getRootDirector().getSavedStateBudget() : null;
+
+    Bundle outState;
+    // The budget measures and spills every nested state, so it's always rebuilt
+    if (willReuseSavedState() && budget == null && !lifecycleState.isResumed()) {
+      if (lastSavedState == null || isLastSavedStateCompact != compact) {
+        lastSavedState = captureInstanceState(compact);
+        // Frozen like the view state, the args might be changed later
+        lastSavedState.putBundle(KEY_ARGS, new Bundle(args));
+        isLastSavedStateCompact = compact;
       }
+      // The caller might modify the bundle
+      outState = new Bundle(lastSavedState);
+    } else {
+      lastSavedState = null;
+      outState = captureInstanceState(compact);
     }
 
+    if (budget != null) {
+      budget.record(this, outState);
+    }
+    return outState;
+  }
+
+  /**
+   * Returns the saved state of this {@code Scene} which is going to be pushed,
+   * like a preparing one. It's created with a new id after restoring.
+   */
+  @NonNull
+  Bundle savePendingState() {
     Bundle outState = new Bundle();
-    outState.putInt(KEY_ID, getId());
+    outState.putInt(KEY_ID, INVALID_ID);
     outState.putString(KEY_TAG, getTag());
-    outState.putBundle(KEY_ARGS, args);
     outState.putBoolean(KEY_WILL_RETAIN_VIEW, willRetainView());
     outState.putInt(KEY_OPACITY, getOpacity());
     outState.putInt(KEY_THEME, getTheme());
     outState.putInt(KEY_TARGET, target);
+    outState.putBundle(KEY_ARGS, args != null ? new Bundle(args) : null);
+    return outState;
+  }
+
+  @NonNull
+  private Bundle captureInstanceState(boolean compact) {
+    onUpdateArgs(args);
+    SceneStates.saveState(this, args);
+
+    if (!lifecycleListeners.isEmpty()) {
+      for (LifecycleListener listener : new ArrayList<>(lifecycleListeners)) {
+        listener.onUpdateArgs(this, args);
+      }
+    }
+    dispatchRootLifecycleEvent(LifecycleListener.EVENT_UPDATE_ARGS, args);
+
+    Bundle outState = new Bundle();
+    if (compact) {
+      outState.putByteArray(KEY_COMPACT, writeCompactFields());
+    } else {
+      outState.putInt(KEY_ID, getId());
+      outState.putString(KEY_TAG, getTag());
+      outState.putBoolean(KEY_WILL_RETAIN_VIEW, willRetainView());
+      outState.putInt(KEY_OPACITY, getOpacity());
+      outState.putInt(KEY_THEME, getTheme());
+      outState.putInt(KEY_TARGET, target);
+    }
+    outState.putBundle(KEY_ARGS, args);
 
     if (view != null) {
       saveViewState(view);
@@ -929,16 +1456,22 @@ public abstract class Scene {
   }
 
   void restoreInstanceState(@NonNull Bundle savedInstanceState) {
-    savedId = savedInstanceState.getInt(KEY_ID, INVALID_ID);
-    setTag(savedInstanceState.getString(KEY_TAG, null));
-    setArgs(savedInstanceState.getBundle(KEY_ARGS));
-    setWillRetainView(savedInstanceState.getBoolean(KEY_WILL_RETAIN_VIEW));
-    //noinspection WrongConstant
-    setOpacity(savedInstanceState.getInt(KEY_OPACITY));
-    setTheme(savedInstanceState.getInt(KEY_THEME));
-    target = savedInstanceState.getInt(KEY_TARGET, INVALID_ID);
-
-    viewState = savedInstanceState.getBundle(KEY_VIEW_STATE);
+    byte[] compact = savedInstanceState.getByteArray(KEY_COMPACT);
+    if (compact != null) {
+      readCompactFields(compact);
+    } else {
+      savedId = savedInstanceState.getInt(KEY_ID, INVALID_ID);
+      setTag(savedInstanceState.getString(KEY_TAG, null));
+      setWillRetainView(savedInstanceState.getBoolean(KEY_WILL_RETAIN_VIEW));
+      //noinspection WrongConstant
+      setOpacity(savedInstanceState.getInt(KEY_OPACITY));
+      setTheme(savedInstanceState.getInt(KEY_THEME));
+      target = savedInstanceState.getInt(KEY_TARGET, INVALID_ID);
+    }
+    // Args and view state might be spilled by SavedStateBudget
+    setArgs(SavedStateBudget.getBundle(savedInstanceState, KEY_ARGS));
+
+    viewState = SavedStateBudget.getBundle(savedInstanceState, KEY_VIEW_STATE);
     if (viewState != null) {
       viewState.setClassLoader(getClass().getClassLoader());
     }
@@ -951,9 +1484,192 @@ public abstract class Scene {
     }
   }
 
+  @NonNull
+  private byte[] writeCompactFields() {
+    return writeCompactFields(getId(), tag, willRetainView, opacity, theme, target);
+  }
+
+  @NonNull
+  private static byte[] writeCompactFields(int id, @Nullable String tag, boolean willRetainView,
+      int opacity, int theme, int target) {
+    int flags = opacity;
+    if (willRetainView) {
+      flags |= COMPACT_WILL_RETAIN_VIEW;
+    }
+    if (tag != null) {
+      flags |= COMPACT_HAS_TAG;
+    }
+    if (theme != 0) {
+      flags |= COMPACT_HAS_THEME;
+    }
+    if (target != INVALID_ID) {
+      flags |= COMPACT_HAS_TARGET;
+    }
+
+    CompactState.Writer writer = new CompactState.Writer();
+    writer.writeByte(flags);
+    writer.writeVarint(id);
+    if (tag != null) {
+      writer.writeString(tag);
+    }
+    if (theme != 0) {
+      writer.writeVarint(theme);
+    }
+    if (target != INVALID_ID) {
+      writer.writeVarint(target);
+    }
+    return writer.toByteArray();
+  }
+
+  /**
+   * Re-encodes the library-owned fields of a saved state which isn't restored,
+   * as if the {@code Scene} is saved again. Returns the saved state itself
+   * if it's in the encoding already.
+   */
+  @NonNull
+  static Bundle encodeSavedState(@NonNull Bundle savedInstanceState, boolean compact) {
+    byte[] fields = savedInstanceState.getByteArray(KEY_COMPACT);
+    if ((fields != null) == compact) {
+      return savedInstanceState;
+    }
+
+    Bundle outState = new Bundle(savedInstanceState);
+    if (compact) {
+      outState.putByteArray(KEY_COMPACT, writeCompactFields(
+          savedInstanceState.getInt(KEY_ID, INVALID_ID),
+          savedInstanceState.getString(KEY_TAG, null),
+          savedInstanceState.getBoolean(KEY_WILL_RETAIN_VIEW),
+          savedInstanceState.getInt(KEY_OPACITY),
+          savedInstanceState.getInt(KEY_THEME),
+          savedInstanceState.getInt(KEY_TARGET, INVALID_ID)));
+      outState.remove(KEY_ID);
+      outState.remove(KEY_TAG);
+      outState.remove(KEY_WILL_RETAIN_VIEW);
+      outState.remove(KEY_OPACITY);
+      outState.remove(KEY_THEME);
+      outState.remove(KEY_TARGET);
+    } else {
+      CompactState.Reader reader = new CompactState.Reader(fields);
+      int flags = reader.readByte();
+      outState.putInt(KEY_ID, reader.readVarint());
+      outState.putString(KEY_TAG, (flags & COMPACT_HAS_TAG) != 0 ? reader.readString() : null);
+      outState.putBoolean(KEY_WILL_RETAIN_VIEW, (flags & COMPACT_WILL_RETAIN_VIEW) != 0);
+      outState.putInt(KEY_OPACITY, flags & COMPACT_OPACITY_MASK);
+      outState.putInt(KEY_THEME, (flags & COMPACT_HAS_THEME) != 0 ? reader.readVarint() : 0);
+      outState.putInt(KEY_TARGET,
+          (flags & COMPACT_HAS_TARGET) != 0 ? reader.readVarint() : INVALID_ID);
+      outState.remove(KEY_COMPACT);
+    }
+    return outState;
+  }
+
+  private void readCompactFields(@NonNull byte[] compact) {
+    CompactState.Reader reader = new CompactState.Reader(compact);
+    int flags = reader.readByte();
+    savedId = reader.readVarint();
+    setTag((flags & COMPACT_HAS_TAG) != 0 ? reader.readString() : null);
+    setWillRetainView((flags & COMPACT_WILL_RETAIN_VIEW) != 0);
+    //noinspection WrongConstant
+    setOpacity(flags & COMPACT_OPACITY_MASK);
+    setTheme((flags & COMPACT_HAS_THEME) != 0 ? reader.readVarint() : 0);
+    target = (flags & COMPACT_HAS_TARGET) != 0 ? reader.readVarint() : INVALID_ID;
+  }
+
+  static int getSavedId(@NonNull Bundle savedInstanceState) {
+    byte[] compact = savedInstanceState.getByteArray(KEY_COMPACT);
+    if (compact != null) {
+      CompactState.Reader reader = new CompactState.Reader(compact);
+      reader.readByte();
+      return reader.readVarint();
+    }
+    return savedInstanceState.getInt(KEY_ID, INVALID_ID);
+  }
+
+  @Nullable
+  static String getSavedTag(@NonNull Bundle savedInstanceState) {
+    byte[] compact = savedInstanceState.getByteArray(KEY_COMPACT);
+    if (compact != null) {
+      CompactState.Reader reader = new CompactState.Reader(compact);
+      int flags = reader.readByte();
+      reader.readVarint();
+      return (flags & COMPACT_HAS_TAG) != 0 ? reader.readString() : null;
+    }
+    return savedInstanceState.getString(KEY_TAG, null);
+  }
+
+  @Opacity
+  static int getSavedOpacity(@NonNull Bundle savedInstanceState) {
+    byte[] compact = savedInstanceState.getByteArray(KEY_COMPACT);
+    if (compact != null) {
+      //noinspection WrongConstant
+      return compact[0] & COMPACT_OPACITY_MASK;
+    }
+    //noinspection WrongConstant
+    return savedInstanceState.getInt(KEY_OPACITY);
+  }
+
+  static boolean hasChildDirector(@NonNull Bundle savedInstanceState) {
+    return savedInstanceState.getBundle(KEY_CHILD_DIRECTOR) != null;
+  }
+
+  static void collectSceneClassNames(
+      @NonNull Bundle savedInstanceState, @NonNull Collection<String> classNames) {
+    Bundle childDirectorState = savedInstanceState.getBundle(KEY_CHILD_DIRECTOR);
+    if (childDirectorState != null) {
+      Director.collectSceneClassNames(childDirectorState, classNames);
+    }
+  }
+
+  /**
+   * Returns {@code true} if {@link #onPrepare(Bundle)} should be called
+   * before this {@code Scene} is pushed. {@code false} in default.
+   */
+  protected boolean willPrepare() {
+    return false;
+  }
+
+  /**
+   * Returns the maximum time in milliseconds for {@link #onPrepare(Bundle)}.
+   * If it times out, the thread is interrupted and the {@code Scene} is pushed without
+   * a prepared result. {@link #DEFAULT_PREPARE_TIMEOUT} in default.
+   */
+  protected long getPrepareTimeout() {
+    return DEFAULT_PREPARE_TIMEOUT;
+  }
+
+  /**
+   * Called on a background thread before the {@code Scene} is pushed,
+   * if {@link #willPrepare()} returns {@code true}.
+   * It's where parsing, database reading or something like that should go.
+   * The returned value could be got by {@link #getPreparedResult()}, in
+   * {@link #onCreate(Bundle)} and {@link #onCreateView(LayoutInflater, ViewGroup)}.
+   * <p>
+   * Don't touch views or the {@link Stage} in the method. The operations on the {@code Stage}
+   * after pushing this {@code Scene} wait until it's prepared. If the {@code Scene}
+   * is popped while preparing, the thread is interrupted and the {@code Scene} isn't pushed.
+   * <p>
+   * {@code args} is a copy of the args of this {@code Scene}, changes to it are dropped.
+   * It might still run after the {@code Scene} is pushed if it timed out.
+   * If the {@code Stage} saves its state while preparing, the {@code Scene} is saved
+   * with its args, and isn't prepared after restoring. If it throws, the error is logged
+   * and the {@code Scene} is pushed without a prepared result.
+   * <p>
+   * It isn't called for the {@code Scene} restored from saved state.
+   */
+  @WorkerThread
+  @Nullable
+  protected Object onPrepare(@NonNull Bundle args) {
+    return null;
+  }
+
   /**
    * Called when the {@code Scene} is being pushed to the stack.
    * It's where most non-view initialization should go.
+   * <p>
+   * After the process is recreated, only visible {@code Scene}s are created
+   * with the stack. Others are created when they become visible or are
+   * accessed through {@link Stage}, so the {@code Scene}s in a stack might be
+   * created in any order.
    */
   @CallSuper
   protected void onCreate(@NonNull Bundle args) {}
@@ -1093,8 +1809,53 @@ public abstract class Scene {
         + "tag: " + tag + "}";
   }
 
+  /**
+   * Listens lifecycle events of a {@link Scene}.
+   * <p>
+   * It could be added to a {@link Scene} by {@link Scene#addLifecycleListener(LifecycleListener)},
+   * or to all {@link Scene}s of a {@link Director} hierarchy by
+   * {@link Director#addLifecycleListener(LifecycleListener, int)} with the events it cares about.
+   */
   public static abstract class LifecycleListener {
 
+    @IntDef(flag = true, value = {
+        EVENT_CREATE,
+        EVENT_CREATE_VIEW,
+        EVENT_ATTACH_VIEW,
+        EVENT_START,
+        EVENT_RESUME,
+        EVENT_PAUSE,
+        EVENT_STOP,
+        EVENT_DETACH_VIEW,
+        EVENT_DESTROY_VIEW,
+        EVENT_DESTROY,
+        EVENT_UPDATE_ARGS,
+        EVENT_SAVE_VIEW_STATE,
+        EVENT_RESTORE_VIEW_STATE,
+        EVENT_ALL
+    })
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface Event {}
+
+    public static final int EVENT_CREATE = 1;
+    public static final int EVENT_CREATE_VIEW = 1 << 1;
+    public static final int EVENT_ATTACH_VIEW = 1 << 2;
+    public static final int EVENT_START = 1 << 3;
+    public static final int EVENT_RESUME = 1 << 4;
+    public static final int EVENT_PAUSE = 1 << 5;
+    public static final int EVENT_STOP = 1 << 6;
+    public static final int EVENT_DETACH_VIEW = 1 << 7;
+    public static final int EVENT_DESTROY_VIEW = 1 << 8;
+    public static final int EVENT_DESTROY = 1 << 9;
+    public static final int EVENT_UPDATE_ARGS = 1 << 10;
+    public static final int EVENT_SAVE_VIEW_STATE = 1 << 11;
+    public static final int EVENT_RESTORE_VIEW_STATE = 1 << 12;
+
+    /**
+     * All events.
+     */
+    public static final int EVENT_ALL = (1 << 13) - 1;
+
     public void onCreate(@NonNull Scene scene, @NonNull Bundle args) {}
     public void onCreateView(@NonNull Scene scene) {}
     public void onAttachView(@NonNull Scene scene, @NonNull View view) {}
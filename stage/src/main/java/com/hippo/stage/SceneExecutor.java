@@ -0,0 +1,190 @@
+/*
+ * Copyright 2017 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.stage;
+
+import android.support.annotation.IntDef;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * A {@code SceneExecutor} runs background tasks of a {@link Scene}.
+ * <p>
+ * All {@code SceneExecutor}s share a pool of threads. It's separated from
+ * {@link BackgroundExecutor}, so long tasks of scenes don't delay the library's own work,
+ * like {@code Scene.onPrepare()} or saved state expansion.
+ * Pending tasks are picked by the visibility of their scenes, the task of the top scene
+ * runs first, and tasks of scenes with the same priority take turns.
+ * Each task submitted to the pool only runs the best pending task at that time.
+ */
+final class SceneExecutor implements Executor {
+
+  @IntDef({PRIORITY_TOP, PRIORITY_VISIBLE, PRIORITY_DETACHED, PRIORITY_HIBERNATED})
+  @Retention(RetentionPolicy.SOURCE)
+  @interface Priority {}
+
+  // The scene is resumed
+  static final int PRIORITY_TOP = 0;
+  // The scene is started, but it's not the top one, like under a dialog
+  static final int PRIORITY_VISIBLE = 1;
+  // The scene has a view, but it isn't started
+  static final int PRIORITY_DETACHED = 2;
+  // The scene has no view, like deep in the stack
+  static final int PRIORITY_HIBERNATED = 3;
+
+  private static final int PRIORITY_COUNT = 4;
+
+  private static final Object LOCK = new Object();
+  // Executors with pending tasks for each priority
+  private static final List<LinkedHashSet<SceneExecutor>> QUEUES = new ArrayList<>(PRIORITY_COUNT);
+
+  static {
+    for (int i = 0; i < PRIORITY_COUNT; i++) {
+      QUEUES.add(new LinkedHashSet<SceneExecutor>());
+    }
+  }
+
+  // Created on first use
+  private static final class PoolHolder {
+    static final ExecutorService POOL = BackgroundExecutor.newExecutor("Stage-Scene");
+  }
+
+  private static final Runnable RUN_NEXT = new Runnable() {
+    @Override
+    public void run() {
+      Task<?> task = pollTask();
+      if (task != null) {
+        task.run();
+      }
+    }
+  };
+
+  // Guarded by LOCK
+  private final ArrayDeque<Task<?>> pendingTasks = new ArrayDeque<>();
+  // Guarded by LOCK, pending and running tasks
+  private final Set<Task<?>> tasks = new HashSet<>();
+  // Guarded by LOCK
+  @Priority
+  private int priority;
+  // Guarded by LOCK
+  private boolean isShutdown;
+
+  SceneExecutor(@Priority int priority) {
+    this.priority = priority;
+  }
+
+  @Nullable
+  private static Task<?> pollTask() {
+    synchronized (LOCK) {
+      for (LinkedHashSet<SceneExecutor> queue : QUEUES) {
+        Iterator<SceneExecutor> iterator = queue.iterator();
+        if (iterator.hasNext()) {
+          SceneExecutor executor = iterator.next();
+          iterator.remove();
+          Task<?> task = executor.pendingTasks.poll();
+          if (!executor.pendingTasks.isEmpty()) {
+            // Move to the tail, let other executors with same priority run
+            queue.add(executor);
+          }
+          return task;
+        }
+      }
+      return null;
+    }
+  }
+
+  @Override
+  public void execute(@NonNull Runnable command) {
+    submit(Executors.callable(command));
+  }
+
+  @NonNull
+  <T> Future<T> submit(@NonNull Callable<T> callable) {
+    Task<T> task = new Task<>(callable);
+    synchronized (LOCK) {
+      if (isShutdown) {
+        throw new RejectedExecutionException("The scene is destroyed");
+      }
+      pendingTasks.offer(task);
+      tasks.add(task);
+      QUEUES.get(priority).add(this);
+    }
+    PoolHolder.POOL.execute(RUN_NEXT);
+    return task;
+  }
+
+  void setPriority(@Priority int priority) {
+    synchronized (LOCK) {
+      if (this.priority != priority) {
+        if (QUEUES.get(this.priority).remove(this)) {
+          QUEUES.get(priority).add(this);
+        }
+        this.priority = priority;
+      }
+    }
+  }
+
+  /**
+   * Rejects new tasks, cancels pending tasks and interrupts running tasks.
+   */
+  void shutdown() {
+    List<Task<?>> tasks;
+    synchronized (LOCK) {
+      isShutdown = true;
+      QUEUES.get(priority).remove(this);
+      pendingTasks.clear();
+      tasks = new ArrayList<>(this.tasks);
+      this.tasks.clear();
+    }
+    for (Task<?> task : tasks) {
+      task.cancel(true);
+    }
+  }
+
+  private final class Task<T> extends FutureTask<T> {
+
+    Task(@NonNull Callable<T> callable) {
+      super(callable);
+    }
+
+    @Override
+    protected void done() {
+      synchronized (LOCK) {
+        tasks.remove(this);
+        // The task might be cancelled before running
+        if (pendingTasks.remove(this) && pendingTasks.isEmpty()) {
+          QUEUES.get(priority).remove(SceneExecutor.this);
+        }
+      }
+    }
+  }
+}
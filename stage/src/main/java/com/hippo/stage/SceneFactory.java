@@ -0,0 +1,35 @@
+/*
+ * Copyright 2017 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hippo.stage;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * A {@code SceneFactory} creates {@link Scene}s by class name when they're restored,
+ * without reflection. It's usually generated for {@link RegisterScene} annotated scenes.
+ *
+ * @see Director#registerSceneFactory(SceneFactory)
+ */
+public interface SceneFactory {
+
+  /**
+   * Creates a new instance of the scene class.
+   * Returns {@code null} if the class isn't supported by this factory.
+   */
+  @Nullable
+  Scene newScene(@NonNull String className);
+}
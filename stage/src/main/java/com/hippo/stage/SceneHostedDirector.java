@@ -58,6 +58,31 @@ class SceneHostedDirector extends Director {
     return curtain;
   }
 
+  @NonNull
+  @Override
+  Director getRootDirector() {
+    Stage hostStage = scene != null ? scene.getStage() : null;
+    Director director = hostStage != null ? hostStage.getDirector() : null;
+    return director != null ? director.getRootDirector() : this;
+  }
+
+  @Override
+  void onSavedStateChanged() {
+    if (scene != null) {
+      scene.invalidateSavedState();
+    }
+  }
+
+  @Override
+  void setWindowCovered(@NonNull Stage stage, boolean covered) {
+    // Only the root director can touch the window
+    Stage hostStage = scene != null ? scene.getStage() : null;
+    Director director = hostStage != null ? hostStage.getDirector() : null;
+    if (director != null) {
+      director.setWindowCovered(stage, covered);
+    }
+  }
+
   @Override
   int requireSceneId() {
     return scene.requireSceneId();
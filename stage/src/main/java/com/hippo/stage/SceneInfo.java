@@ -20,6 +20,7 @@ package com.hippo.stage;
  * Created by Hippo on 4/21/2017.
  */
 
+import android.graphics.Bitmap;
 import android.support.annotation.IntDef;
 import android.support.annotation.NonNull;
 import android.view.View;
@@ -66,6 +67,11 @@ public final class SceneInfo {
 
   final boolean isStarted;
 
+  // Whether the view is detached before the curtain completes
+  boolean isDetached;
+  // The bitmap of the view if the view is a snapshot
+  Bitmap snapshot;
+
   private SceneInfo(Builder builder) {
     scene = builder.scene;
     view = builder.view;
@@ -96,6 +102,11 @@ public final class SceneInfo {
       return this;
     }
 
+    public Builder view(@NonNull View view) {
+      this.view = view;
+      return this;
+    }
+
     public Builder viewState(@ViewState int viewState) {
       this.viewState = viewState;
       return this;
@@ -25,16 +25,22 @@ import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 
 class SceneStack implements Iterable<Scene> {
 
   private static final String KEY_ENTRIES = "SceneStack:entries";
   private static final String KEY_CLASS_NAME = "SceneStack:class_name";
+  // The compact encoding, class names are deduplicated in a table
+  private static final String KEY_CLASS_NAMES = "SceneStack:class_names";
+  private static final String KEY_CLASS_INDEXES = "SceneStack:class_indexes";
 
   static final int INVALID_INDEX = -1;
 
-  private final ArrayDeque<Scene> stack = new ArrayDeque<>();
+  private final ArrayDeque<Entry> stack = new ArrayDeque<>();
   private final Callback callback;
 
   SceneStack(@NonNull Callback callback) {
@@ -50,41 +56,52 @@ class SceneStack implements Iterable<Scene> {
   }
 
   boolean contains(@NonNull Scene scene) {
-    return stack.contains(scene);
+    for (Entry entry : stack) {
+      if (entry.scene == scene) {
+        return true;
+      }
+    }
+    return false;
   }
 
   @Nullable
   Scene peek() {
-    return stack.peekFirst();
+    Entry entry = stack.peekFirst();
+    return entry != null ? restore(entry) : null;
   }
 
   @Nullable
   Scene tail() {
-    return stack.peekLast();
+    Entry entry = stack.peekLast();
+    return entry != null ? restore(entry) : null;
   }
 
   void push(@NonNull Scene scene) {
-    stack.push(scene);
+    stack.push(new Entry(scene));
     callback.onPush(scene);
   }
 
   @Nullable
   Scene pop() {
-    Scene scene = stack.poll();
-    if (scene != null) {
-      callback.onPop(scene, false);
+    Entry entry = stack.peekFirst();
+    if (entry == null) {
+      return null;
     }
+    // Only a created scene could be finished
+    Scene scene = restore(entry);
+    stack.poll();
+    callback.onPop(scene, false);
     return scene;
   }
 
   // Index: from top to root
   // Returns INVALID_INDEX if can't find it
   int pop(@NonNull Scene scene) {
-    Iterator<Scene> iterator = stack.iterator();
+    Iterator<Entry> iterator = stack.iterator();
     int index = 0;
     while (iterator.hasNext()) {
-      Scene current = iterator.next();
-      if (current == scene) {
+      Entry current = iterator.next();
+      if (current.scene == scene) {
         // Catch it!
         iterator.remove();
         callback.onPop(scene, false);
@@ -97,40 +114,291 @@ class SceneStack implements Iterable<Scene> {
   }
 
   void popAll(boolean willRecreate) {
-    for (Scene scene : stack) {
-      callback.onPop(scene, willRecreate);
+    for (Entry entry : stack) {
+      // Scenes not restored yet have nothing to destroy
+      if (entry.scene != null) {
+        callback.onPop(entry.scene, willRecreate);
+      }
     }
     stack.clear();
   }
 
+  /**
+   * Returns an iterator from top to root.
+   * Scenes not restored yet are restored when they are reached.
+   */
   @Override
   public Iterator<Scene> iterator() {
-    return stack.iterator();
+    return new Iterator<Scene>() {
+
+      private final Iterator<Entry> iterator = stack.iterator();
+
+      @Override
+      public boolean hasNext() {
+        return iterator.hasNext();
+      }
+
+      @Override
+      public Scene next() {
+        return restore(iterator.next());
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
   }
 
-  void saveInstanceState(@NonNull Bundle outState) {
-    ArrayList<Bundle> bundles = new ArrayList<>(stack.size());
-    for (Scene scene : stack) {
-      Bundle bundle = scene.saveInstanceState();
-      bundle.putString(KEY_CLASS_NAME, scene.getClass().getName());
+  /**
+   * Look for the first scene with the tag from top to root.
+   * Only the matched scene is restored.
+   */
+  @Nullable
+  Scene findSceneByTag(@NonNull String tag) {
+    for (Entry entry : stack) {
+      String entryTag = entry.scene != null
+          ? entry.scene.getTag() : Scene.getSavedTag(entry.savedState);
+      if (tag.equals(entryTag)) {
+        return restore(entry);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Look for a scene with the id in the scene sub-hierarchy.
+   * Scenes not restored yet are only restored if they or their children might match.
+   */
+  @Nullable
+  Scene findSceneById(int sceneId) {
+    for (Entry entry : stack) {
+      Scene scene = entry.scene;
+      if (scene == null) {
+        Bundle savedState = entry.savedState;
+        if (Scene.getSavedId(savedState) != sceneId && !Scene.hasChildDirector(savedState)) {
+          continue;
+        }
+        scene = restore(entry);
+      }
+      Scene result = scene.findSceneById(sceneId);
+      if (result != null) {
+        return result;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Saves the scenes. If {@code compact}, the library-owned fields are packed
+   * in bytes, and the class names are written once in a table.
+   */
+  void saveInstanceState(@NonNull Bundle outState, boolean compact) {
+    saveInstanceState(stack, outState, compact);
+  }
+
+  /**
+   * Saves the scenes in a {@link Saving}, in which the pending operations are applied.
+   */
+  void saveInstanceState(@NonNull Saving saving, @NonNull Bundle outState, boolean compact) {
+    saveInstanceState(saving.entries, outState, compact);
+  }
+
+  private static void saveInstanceState(
+      @NonNull ArrayDeque<Entry> entries, @NonNull Bundle outState, boolean compact) {
+    ArrayList<Bundle> bundles = new ArrayList<>(entries.size());
+    ArrayList<String> classNames = compact ? new ArrayList<String>() : null;
+    HashMap<String, Integer> classIndexes = compact ? new HashMap<String, Integer>() : null;
+    CompactState.Writer indexWriter = compact ? new CompactState.Writer() : null;
+    for (Entry entry : entries) {
+      Bundle bundle;
+      String className;
+      if (entry.scene != null) {
+        Scene scene = entry.scene;
+        // A scene pushed by a pending operation isn't created yet
+        bundle = scene.getLifecycleState().hasCreated()
+            ? scene.saveInstanceState(compact) : scene.savePendingState();
+        className = scene.getClass().getName();
+      } else {
+        // Never restored, write it back in the current encoding
+        bundle = Scene.encodeSavedState(entry.savedState, compact);
+        className = entry.className;
+      }
+
+      if (compact) {
+        bundle.remove(KEY_CLASS_NAME);
+        Integer index = classIndexes.get(className);
+        if (index == null) {
+          index = classNames.size();
+          classNames.add(className);
+          classIndexes.put(className, index);
+        }
+        indexWriter.writeVarint(index);
+      } else {
+        bundle.putString(KEY_CLASS_NAME, className);
+      }
       bundles.add(bundle);
     }
     outState.putParcelableArrayList(KEY_ENTRIES, bundles);
+    if (compact) {
+      outState.putStringArray(KEY_CLASS_NAMES, classNames.toArray(new String[classNames.size()]));
+      outState.putByteArray(KEY_CLASS_INDEXES, indexWriter.toByteArray());
+    }
   }
 
+  /**
+   * Only the visible scenes are restored now.
+   * Others are kept as saved states until they're visible or accessed.
+   */
   void restoreInstanceState(@NonNull Bundle savedInstanceState) {
     ArrayList<Bundle> bundles = savedInstanceState.getParcelableArrayList(KEY_ENTRIES);
     if (bundles != null) {
+      List<String> classNames = getClassNames(savedInstanceState, bundles);
+      int visibleCount = getVisibleCount(bundles);
+      int index = bundles.size();
+      while (--index >= 0) {
+        Bundle bundle = bundles.get(index);
+        String className = classNames.get(index);
+        if (index < visibleCount) {
+          push(Scene.newInstance(className, bundle));
+        } else {
+          stack.push(new Entry(bundle, className));
+        }
+      }
+    }
+  }
+
+  // Class names of the entries, from the table or from each entry
+  @NonNull
+  private static List<String> getClassNames(
+      @NonNull Bundle savedInstanceState, @NonNull ArrayList<Bundle> bundles) {
+    List<String> classNames = new ArrayList<>(bundles.size());
+    String[] table = savedInstanceState.getStringArray(KEY_CLASS_NAMES);
+    byte[] indexes = savedInstanceState.getByteArray(KEY_CLASS_INDEXES);
+    if (table != null && indexes != null) {
+      CompactState.Reader reader = new CompactState.Reader(indexes);
+      for (int i = 0, n = bundles.size(); i < n; i++) {
+        classNames.add(table[reader.readVarint()]);
+      }
+    } else {
+      for (Bundle bundle : bundles) {
+        classNames.add(bundle.getString(KEY_CLASS_NAME));
+      }
+    }
+    return classNames;
+  }
+
+  // Same as the visibility in Stage, from top to root
+  private static int getVisibleCount(@NonNull ArrayList<Bundle> bundles) {
+    int count = 0;
+    for (Bundle bundle : bundles) {
+      count++;
+      int opacity = Scene.getSavedOpacity(bundle);
+      if (opacity == Scene.OPAQUE || (opacity == Scene.TRANSLUCENT && count > 1)) {
+        break;
+      }
+    }
+    return count;
+  }
+
+  @NonNull
+  private Scene restore(@NonNull Entry entry) {
+    Scene scene = entry.scene;
+    if (scene == null) {
+      scene = Scene.newInstance(entry.className, entry.savedState);
+      entry.scene = scene;
+      entry.savedState = null;
+      entry.className = null;
+      callback.onPush(scene);
+    }
+    return scene;
+  }
+
+  /**
+   * Collects class names of the scenes in the saved state, including the scenes
+   * of child directors.
+   */
+  static void collectSceneClassNames(
+      @NonNull Bundle savedInstanceState, @NonNull Collection<String> classNames) {
+    ArrayList<Bundle> bundles = savedInstanceState.getParcelableArrayList(KEY_ENTRIES);
+    if (bundles != null) {
+      List<String> entryClassNames = getClassNames(savedInstanceState, bundles);
+      // From the root scene, the restoring order
       int index = bundles.size();
       while (--index >= 0) {
         Bundle bundle = bundles.get(index);
-        String className = bundle.getString(KEY_CLASS_NAME);
-        Scene scene = Scene.newInstance(className, bundle);
-        push(scene);
+        classNames.add(entryClassNames.get(index));
+        Scene.collectSceneClassNames(bundle, classNames);
       }
     }
   }
 
+  /**
+   * Returns a {@link Saving} with the current scenes.
+   */
+  @NonNull
+  Saving newSaving() {
+    return new Saving(new ArrayDeque<>(stack));
+  }
+
+  /**
+   * A {@code Saving} is a copy of the stack to save. The operations which haven't run,
+   * like the ones waiting for a preparing scene, are applied to it without
+   * touching the scenes.
+   */
+  static final class Saving {
+
+    private final ArrayDeque<Entry> entries;
+
+    private Saving(@NonNull ArrayDeque<Entry> entries) {
+      this.entries = entries;
+    }
+
+    void push(@NonNull Scene scene) {
+      entries.push(new Entry(scene));
+    }
+
+    void pop() {
+      entries.poll();
+    }
+
+    void pop(@NonNull Scene scene) {
+      Iterator<Entry> iterator = entries.iterator();
+      while (iterator.hasNext()) {
+        if (iterator.next().scene == scene) {
+          iterator.remove();
+          return;
+        }
+      }
+    }
+
+    void popAll() {
+      entries.clear();
+    }
+  }
+
+  private static class Entry {
+
+    // null if the scene isn't restored yet
+    @Nullable
+    private Scene scene;
+    // The saved state of the scene, non-null if the scene isn't restored yet
+    @Nullable
+    private Bundle savedState;
+    // The class name of the scene, non-null if the scene isn't restored yet
+    @Nullable
+    private String className;
+
+    private Entry(@NonNull Scene scene) {
+      this.scene = scene;
+    }
+
+    private Entry(@NonNull Bundle savedState, @NonNull String className) {
+      this.savedState = savedState;
+      this.className = className;
+    }
+  }
+
   interface Callback {
 
     void onPush(@NonNull Scene scene);
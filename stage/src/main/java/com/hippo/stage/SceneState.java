@@ -0,0 +1,48 @@
+/*
+ * Copyright 2017 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hippo.stage;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a field of a {@link Scene} to be saved and restored automatically.
+ * <p>
+ * The {@code stage-compiler} annotation processor generates a {@link SceneStateBinder}
+ * for the scene. Fields are written to the args after {@link Scene#onUpdateArgs(android.os.Bundle)},
+ * and read back before {@link Scene#onCreate(android.os.Bundle)}. If {@link #view()} is
+ * {@code true}, the field is a part of the view state instead, it's written after
+ * {@link Scene#onSaveViewState(android.view.View, android.os.Bundle)} and read back before
+ * {@link Scene#onRestoreViewState(android.view.View, android.os.Bundle)}.
+ * <p>
+ * All fields of a scene are packed in one entry.
+ * The field must be non-private and non-final. Primitives, {@code String},
+ * {@code Bundle}, {@code Parcelable}, {@code Serializable} and arrays of
+ * primitives or strings are supported.
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.FIELD)
+public @interface SceneState {
+
+  /**
+   * Whether the field is a part of the view state.
+   */
+  boolean view() default false;
+}
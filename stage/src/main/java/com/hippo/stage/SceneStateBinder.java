@@ -0,0 +1,36 @@
+/*
+ * Copyright 2017 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hippo.stage;
+
+import android.os.Parcel;
+import android.support.annotation.NonNull;
+
+/**
+ * A {@code SceneStateBinder} saves and restores the {@link SceneState} fields of a scene class.
+ * It's generated by the {@code stage-compiler} annotation processor,
+ * named as the scene class with a {@code _StateBinder} suffix.
+ * The fields of super classes are handled by their own binders.
+ */
+public interface SceneStateBinder<T extends Scene> {
+
+  void saveState(@NonNull T scene, @NonNull Parcel out);
+
+  void restoreState(@NonNull T scene, @NonNull Parcel in);
+
+  void saveViewState(@NonNull T scene, @NonNull Parcel out);
+
+  void restoreViewState(@NonNull T scene, @NonNull Parcel in);
+}
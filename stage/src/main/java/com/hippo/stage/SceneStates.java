@@ -0,0 +1,138 @@
+/*
+ * Copyright 2017 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hippo.stage;
+
+import android.os.Bundle;
+import android.os.Parcel;
+import android.support.annotation.NonNull;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Runs the generated {@link SceneStateBinder}s of scenes.
+ * The fields of a scene, including the fields of super classes,
+ * are packed in one entry of a {@code Bundle}.
+ */
+final class SceneStates {
+  private SceneStates() {}
+
+  private static final String KEY_STATE = "Scene:packed_state";
+
+  private static final String BINDER_SUFFIX = "_StateBinder";
+
+  private static final SceneStateBinder[] NO_BINDERS = new SceneStateBinder[0];
+
+  // Binders of a scene class and its super classes, from the super class
+  private static final ConcurrentHashMap<Class<?>, SceneStateBinder[]> sBinderMap =
+      new ConcurrentHashMap<>();
+
+  static void saveState(@NonNull Scene scene, @NonNull Bundle outState) {
+    save(scene, outState, false);
+  }
+
+  static void restoreState(@NonNull Scene scene, @NonNull Bundle savedState) {
+    restore(scene, savedState, false);
+  }
+
+  static void saveViewState(@NonNull Scene scene, @NonNull Bundle outState) {
+    save(scene, outState, true);
+  }
+
+  static void restoreViewState(@NonNull Scene scene, @NonNull Bundle savedState) {
+    restore(scene, savedState, true);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static void save(@NonNull Scene scene, @NonNull Bundle outState, boolean view) {
+    SceneStateBinder[] binders = getBinders(scene.getClass());
+    if (binders.length == 0) {
+      return;
+    }
+    Parcel parcel = Parcel.obtain();
+    try {
+      for (SceneStateBinder binder : binders) {
+        if (view) {
+          binder.saveViewState(scene, parcel);
+        } else {
+          binder.saveState(scene, parcel);
+        }
+      }
+      outState.putByteArray(KEY_STATE, parcel.marshall());
+    } finally {
+      parcel.recycle();
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static void restore(@NonNull Scene scene, @NonNull Bundle savedState, boolean view) {
+    SceneStateBinder[] binders = getBinders(scene.getClass());
+    byte[] data = binders.length != 0 ? savedState.getByteArray(KEY_STATE) : null;
+    if (data == null) {
+      return;
+    }
+    Parcel parcel = Parcel.obtain();
+    try {
+      parcel.unmarshall(data, 0, data.length);
+      parcel.setDataPosition(0);
+      for (SceneStateBinder binder : binders) {
+        if (view) {
+          binder.restoreViewState(scene, parcel);
+        } else {
+          binder.restoreState(scene, parcel);
+        }
+      }
+    } finally {
+      parcel.recycle();
+    }
+  }
+
+  @NonNull
+  private static SceneStateBinder[] getBinders(@NonNull Class<?> clazz) {
+    SceneStateBinder[] binders = sBinderMap.get(clazz);
+    if (binders == null) {
+      List<SceneStateBinder> list = new ArrayList<>();
+      for (Class<?> c = clazz; c != null && c != Scene.class; c = c.getSuperclass()) {
+        SceneStateBinder binder = findBinder(c);
+        if (binder != null) {
+          list.add(0, binder);
+        }
+      }
+      binders = list.isEmpty() ? NO_BINDERS : list.toArray(new SceneStateBinder[list.size()]);
+      sBinderMap.put(clazz, binders);
+    }
+    return binders;
+  }
+
+  // The binder of Outer$Inner is Outer_Inner_StateBinder
+  private static SceneStateBinder findBinder(@NonNull Class<?> clazz) {
+    String name = clazz.getName();
+    int dot = name.lastIndexOf('.');
+    String binderName = name.substring(0, dot + 1)
+        + name.substring(dot + 1).replace('$', '_') + BINDER_SUFFIX;
+    Class<?> binderClass;
+    try {
+      binderClass = Class.forName(binderName, true, clazz.getClassLoader());
+    } catch (ClassNotFoundException e) {
+      return null;
+    }
+    try {
+      return (SceneStateBinder) binderClass.newInstance();
+    } catch (Throwable e) {
+      throw new RuntimeException("Can't create " + binderName, e);
+    }
+  }
+}
@@ -0,0 +1,367 @@
+/*
+ * Copyright 2017 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.stage;
+
+import android.app.Activity;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Parcel;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * A {@code SnapshotStore} keeps a snapshot of the {@link Director} hierarchy
+ * in app-private storage, so the last navigation state could be restored
+ * on a cold start, even if the system doesn't provide a saved state.
+ * <p>
+ * The snapshot is taken after navigation settles, debounced by {@link #setDelay(long)}.
+ * The state is captured on the main thread, the file is written in background.
+ * Taking a snapshot doesn't affect the hierarchy: it isn't measured by
+ * {@link SavedStateBudget}.
+ * <pre>
+ * store = new SnapshotStore(this, "main");
+ * Bundle state = savedInstanceState != null ? savedInstanceState : store.read();
+ * director = Director.hire(this, state);
+ * director.setSnapshotStore(store);
+ * </pre>
+ * The snapshot is dropped if the app or the system is updated,
+ * because the parcel format of {@code Parcelable}s might change.
+ */
+public class SnapshotStore {
+
+  private static final String LOG_TAG = SnapshotStore.class.getSimpleName();
+
+  private static final int MAGIC = 0x53544753;
+  private static final int FORMAT_VERSION = 1;
+
+  private static final long DEFAULT_DELAY = 500;
+
+  private final Context context;
+  private final File file;
+  private final File spillDir;
+  // The owner of the manifest of the spilled files referenced by snapshots
+  private final String spillOwner;
+  // The parcel format of the app Parcelables might change after updated
+  private final long appUpdateTime;
+  private final Handler handler = new Handler(Looper.getMainLooper());
+  private long delay = DEFAULT_DELAY;
+
+  @Nullable
+  private Director director;
+  // Increased for each snapshot, only the latest one is written
+  private int generation;
+  private final Object writeLock = new Object();
+  private int writtenGeneration;
+  // The spilled files referenced by the stored snapshot, guarded by writeLock
+  private final Set<String> storedFiles = new HashSet<>();
+  // The spilled files in the manifest, null if unknown, guarded by writeLock
+  @Nullable
+  private Set<String> manifestFiles;
+  // The latest write or delete
+  @Nullable
+  private Future<?> pendingWrite;
+
+  private final Runnable takeSnapshot = new Runnable() {
+    @Override
+    public void run() {
+      Director director = SnapshotStore.this.director;
+      SnapshotStore.this.director = null;
+      if (director != null) {
+        takeSnapshot(director);
+      }
+    }
+  };
+
+  /**
+   * Creates a {@code SnapshotStore} with a file named {@code name}
+   * in app-private storage.
+   */
+  public SnapshotStore(@NonNull Context context, @NonNull String name) {
+    this.context = context.getApplicationContext();
+    this.file = new File(new File(this.context.getFilesDir(), "stage"), name + ".snapshot");
+    this.spillDir = SavedStateBudget.getDir(this.context);
+    this.spillOwner = "snapshot-" + name;
+    this.appUpdateTime = getAppUpdateTime(this.context);
+  }
+
+  /**
+   * Sets the delay between a navigation settled and a snapshot taken.
+   * Navigations in the delay are merged to one snapshot.
+   * {@code 500} ms in default.
+   */
+  public void setDelay(long delay) {
+    this.delay = delay;
+  }
+
+  /**
+   * Reads the snapshot. It's a saved state which could be passed to
+   * {@link Director#hire(Activity, Bundle)}.
+   * Returns {@code null} if there is no valid snapshot.
+   * It waits for the pending write.
+   */
+  @Nullable
+  public Bundle read() {
+    awaitPendingWrite();
+    if (!file.isFile()) {
+      return null;
+    }
+
+    byte[] data;
+    FileInputStream is = null;
+    try {
+      is = new FileInputStream(file);
+      data = new byte[(int) file.length()];
+      int offset = 0;
+      while (offset < data.length) {
+        int n = is.read(data, offset, data.length - offset);
+        if (n < 0) {
+          throw new IOException("Unexpected end of " + file);
+        }
+        offset += n;
+      }
+    } catch (IOException e) {
+      Log.w(LOG_TAG, "Can't read snapshot", e);
+      return null;
+    } finally {
+      closeQuietly(is);
+    }
+
+    Parcel parcel = Parcel.obtain();
+    try {
+      parcel.unmarshall(data, 0, data.length);
+      parcel.setDataPosition(0);
+      if (parcel.readInt() != MAGIC
+          || parcel.readInt() != FORMAT_VERSION
+          || parcel.readLong() != appUpdateTime
+          || !Build.FINGERPRINT.equals(parcel.readString())) {
+        // The parcel format might be changed
+        return null;
+      }
+      Bundle state = parcel.readBundle(context.getClassLoader());
+      ArrayList<String> files = state != null ? Director.getSpilledFiles(state) : null;
+      if (files != null) {
+        // Referenced by the stored snapshot, until it's replaced
+        synchronized (writeLock) {
+          storedFiles.addAll(files);
+        }
+      }
+      return state;
+    } catch (RuntimeException e) {
+      Log.w(LOG_TAG, "Can't read snapshot", e);
+      return null;
+    } finally {
+      parcel.recycle();
+    }
+  }
+
+  /**
+   * Cancels the pending snapshot and deletes the stored one.
+   */
+  public void clear() {
+    handler.removeCallbacks(takeSnapshot);
+    director = null;
+    final int generation = ++this.generation;
+    pendingWrite = BackgroundExecutor.get().submit(new Runnable() {
+      @Override
+      public void run() {
+        synchronized (writeLock) {
+          if (generation > writtenGeneration) {
+            writtenGeneration = generation;
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+            storedFiles.clear();
+            updateManifest(storedFiles);
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * Called by the root {@link Director} if navigation settles.
+   */
+  void schedule(@NonNull Director director) {
+    this.director = director;
+    handler.removeCallbacks(takeSnapshot);
+    handler.postDelayed(takeSnapshot, delay);
+  }
+
+  /**
+   * Called by the root {@link Director} if it's destroyed.
+   */
+  void cancel(@NonNull Director director) {
+    if (this.director == director) {
+      handler.removeCallbacks(takeSnapshot);
+      this.director = null;
+    }
+  }
+
+  private void takeSnapshot(@NonNull Director director) {
+    if (director.isFinishing() || !director.isSaveEnabled()) {
+      return;
+    }
+    if (director.hasCurtainRunning()) {
+      // Not settled, it's scheduled again after the curtain
+      return;
+    }
+
+    // The state must be parcelled on the main thread, scenes might change it.
+    // Unchanged scenes reuse their last saved state.
+    Bundle state = new Bundle();
+    director.saveSnapshot(state);
+    // The states written back might reference spilled files,
+    // hold them before restored scenes release them, until the manifest is written
+    final ArrayList<String> files = Director.getSpilledFiles(state);
+    if (files != null) {
+      SavedStateBudget.holdFiles(files);
+    }
+    Parcel parcel = Parcel.obtain();
+    final byte[] data;
+    try {
+      parcel.writeInt(MAGIC);
+      parcel.writeInt(FORMAT_VERSION);
+      parcel.writeLong(appUpdateTime);
+      parcel.writeString(Build.FINGERPRINT);
+      parcel.writeBundle(state);
+      data = parcel.marshall();
+    } finally {
+      parcel.recycle();
+    }
+
+    final int generation = ++this.generation;
+    pendingWrite = BackgroundExecutor.get().submit(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          write(data, generation, files);
+        } finally {
+          if (files != null) {
+            SavedStateBudget.releaseFiles(files);
+          }
+        }
+      }
+    });
+  }
+
+  // The generation makes the latest write the last one, so waiting for it is enough
+  private void awaitPendingWrite() {
+    Future<?> future = pendingWrite;
+    if (future == null) {
+      return;
+    }
+    boolean interrupted = false;
+    while (true) {
+      try {
+        future.get();
+        break;
+      } catch (InterruptedException e) {
+        interrupted = true;
+      } catch (ExecutionException e) {
+        break;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void write(@NonNull byte[] data, int generation, @Nullable List<String> files) {
+    synchronized (writeLock) {
+      if (generation <= writtenGeneration) {
+        // A newer one has been written
+        return;
+      }
+      writtenGeneration = generation;
+
+      // Keep the files of both snapshots until the new one replaces the stored one
+      if (files != null && !storedFiles.containsAll(files)) {
+        Set<String> union = new HashSet<>(storedFiles);
+        union.addAll(files);
+        updateManifest(union);
+      }
+
+      File dir = file.getParentFile();
+      //noinspection ResultOfMethodCallIgnored
+      dir.mkdirs();
+      File temp = new File(dir, file.getName() + ".tmp");
+      FileOutputStream os = null;
+      try {
+        os = new FileOutputStream(temp);
+        os.write(data);
+        os.getFD().sync();
+        os.close();
+        os = null;
+        if (temp.renameTo(file)) {
+          // The stored snapshot is replaced, only its spilled files are kept
+          storedFiles.clear();
+          if (files != null) {
+            storedFiles.addAll(files);
+          }
+          updateManifest(storedFiles);
+          return;
+        }
+        Log.w(LOG_TAG, "Can't rename snapshot");
+      } catch (IOException e) {
+        Log.w(LOG_TAG, "Can't write snapshot", e);
+      } finally {
+        closeQuietly(os);
+      }
+    }
+  }
+
+  // Writes the manifest if it's changed, called with writeLock
+  private void updateManifest(@NonNull Set<String> files) {
+    if (!files.equals(manifestFiles)) {
+      SavedStateBudget.writeManifest(spillDir, spillOwner, files);
+      manifestFiles = new HashSet<>(files);
+    }
+  }
+
+  private static long getAppUpdateTime(@NonNull Context context) {
+    try {
+      return context.getPackageManager()
+          .getPackageInfo(context.getPackageName(), 0).lastUpdateTime;
+    } catch (PackageManager.NameNotFoundException e) {
+      return 0;
+    }
+  }
+
+  private static void closeQuietly(@Nullable java.io.Closeable closeable) {
+    if (closeable != null) {
+      try {
+        closeable.close();
+      } catch (IOException e) {
+        // Ignore
+      }
+    }
+  }
+}
@@ -22,19 +22,27 @@ package com.hippo.stage;
 
 import android.app.Activity;
 import android.content.Intent;
+import android.graphics.PixelFormat;
+import android.graphics.drawable.Drawable;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.annotation.RequiresApi;
 import android.util.Log;
 import android.util.SparseIntArray;
+import android.view.View;
 import android.view.ViewGroup;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 /**
  * A {@code Stage} is where {@link Scene}s performed.
@@ -54,6 +62,11 @@ public final class Stage implements Iterable<Scene> {
   private ViewGroup container;
   private CurtainSuppler curtainSuppler;
   private Curtain runningCurtain;
+  // Whether the running curtain is counted by the director and the container
+  private boolean isCurtainCounted;
+  private PostponedCurtain postponedCurtain;
+  private Preparation preparation;
+  private Handler handler;
   private SceneStack stack = new SceneStack(new SceneStack.Callback() {
     @Override
     public void onPush(@NonNull Scene scene) {
@@ -65,6 +78,11 @@ public final class Stage implements Iterable<Scene> {
     }
   });
 
+  // Whether the host director is started or resumed
+  private boolean isHostStarted;
+  private boolean isHostResumed;
+  private boolean isVisible = true;
+  // Whether scenes should be started or resumed
   private boolean isStarted;
   private boolean isResumed;
   private boolean isDestroyed;
@@ -81,6 +99,12 @@ public final class Stage implements Iterable<Scene> {
   private final SparseIntArray activityRequestCodeMap = new SparseIntArray();
   private final SparseIntArray permissionRequestCodeMap = new SparseIntArray();
 
+  private boolean clearsWindowBackground;
+  private boolean isWindowCovered;
+  private View.OnLayoutChangeListener onCoverageLayoutChangeListener;
+  @Nullable
+  private View coverageView;
+
   private boolean willPopTheLastScene;
   private BackHandler<Stage> backHandler;
 
@@ -161,44 +185,136 @@ public final class Stage implements Iterable<Scene> {
       return;
     }
 
-    if (isRunningOperation) {
-      // An Operator is running now, delay this one
+    if (isRunningOperation || preparation != null) {
+      // An Operator is running or a Scene is preparing now, delay this one
       delayedOperations.offer(new Operation(scene, operator));
       return;
     }
 
+    if (willPrepare(scene, operator)) {
+      prepare(scene, operator);
+      return;
+    }
+
     isRunningOperation = true;
     completeRunningCurtain();
     operator.operate(scene);
     isRunningOperation = false;
 
-    if (!isOperatingDelayedOperations) {
+    operateDelayedOperations();
+  }
+
+  private void operateDelayedOperations() {
+    if (!isRunningOperation && !isOperatingDelayedOperations) {
       // Operate delayed operators, lock it to avoid it called in loop
       isOperatingDelayedOperations = true;
 
       Operation operation;
-      while ((operation = delayedOperations.poll()) != null) {
-        isRunningOperation = true;
-        completeRunningCurtain();
-        operation.getOperator().operate(operation.getScene());
-        isRunningOperation = false;
+      // Stop if a Scene starts preparing, keep the order of operations
+      while (preparation == null && (operation = delayedOperations.poll()) != null) {
+        Scene scene = operation.getScene();
+        Operator operator = operation.getOperator();
+        if (willPrepare(scene, operator)) {
+          prepare(scene, operator);
+        } else {
+          isRunningOperation = true;
+          completeRunningCurtain();
+          operator.operate(scene);
+          isRunningOperation = false;
+        }
       }
 
       isOperatingDelayedOperations = false;
     }
   }
 
+  private boolean willPrepare(@NonNull Scene scene, @NonNull Operator operator) {
+    // Only scenes which are going to be pushed need preparing
+    return operator != pop && !scene.getLifecycleState().hasCreated()
+        && !scene.isPrepared() && scene.willPrepare();
+  }
+
+  private void prepare(@NonNull Scene scene, @NonNull Operator operator) {
+    // Create the handler on main thread
+    Handler handler = getHandler();
+    preparation = new Preparation(scene, operator);
+    preparation.args = scene.startPreparing(this);
+    preparation.future = BackgroundExecutor.get().submit(preparation);
+    handler.postDelayed(preparation.timeout, scene.getPrepareTimeout());
+  }
+
+  private void onPrepared(
+      @NonNull Preparation preparation, @Nullable Object result, @Nullable Throwable error) {
+    if (this.preparation != preparation) {
+      // Cancelled or timed out
+      return;
+    }
+    this.preparation = null;
+    handler.removeCallbacks(preparation.timeout);
+
+    Scene scene = preparation.scene;
+    scene.finishPreparing(result);
+    if (error != null) {
+      // Push it without a prepared result, like timing out
+      Log.e(LOG_TAG, "Error in onPrepare(): " + scene, error);
+    }
+
+    // Continue the operation, then the delayed ones
+    operate(scene, preparation.operator);
+  }
+
+  // Pushes the preparing scene right now without a prepared result
+  private void completePreparing() {
+    Preparation preparation = this.preparation;
+    preparation.future.cancel(true);
+    onPrepared(preparation, null, null);
+  }
+
+  /**
+   * Cancels preparing the {@link Scene}. The {@code Scene} won't be pushed.
+   * It's a no-op if the {@code Scene} isn't preparing.
+   */
+  void cancelPreparing(@NonNull Scene scene) {
+    if (preparation != null && preparation.scene == scene) {
+      Preparation preparation = this.preparation;
+      this.preparation = null;
+      handler.removeCallbacks(preparation.timeout);
+      preparation.future.cancel(true);
+      scene.cancelPreparing();
+
+      operateDelayedOperations();
+    }
+  }
+
+  @NonNull
+  private Handler getHandler() {
+    if (handler == null) {
+      handler = new Handler(Looper.getMainLooper());
+    }
+    return handler;
+  }
+
   /**
    * Returns {@code true} if there is a running {@link Curtain}, or {@code false}.
+   * A postponed {@code Curtain} is considered running.
+   * <p>
+   * {@link Director#hasCurtainRunning()} checks it for all {@code Stage}s in constant time.
+   *
+   * @see Scene#postponeCurtain(long)
    */
   public boolean hasCurtainRunning() {
-    return runningCurtain != null;
+    return runningCurtain != null || postponedCurtain != null;
   }
 
   /**
    * Completes running {@link Curtain}.
+   * A postponed {@code Curtain} is started and completed too.
    */
   public void completeRunningCurtain() {
+    if (postponedCurtain != null) {
+      executePostponedCurtain();
+    }
+
     if (runningCurtain != null) {
       runningCurtain.completeImmediately();
 
@@ -211,6 +327,22 @@ public final class Stage implements Iterable<Scene> {
     }
   }
 
+  // Notifies the director and the container if hasCurtainRunning() changed
+  private void updateRunningCurtainCount() {
+    boolean running = hasCurtainRunning();
+    if (isCurtainCounted == running) {
+      return;
+    }
+    isCurtainCounted = running;
+
+    if (director != null) {
+      director.onCurtainRunningChanged(running);
+    }
+    if (container instanceof StageLayout) {
+      ((StageLayout) container).onCurtainRunningChanged(running);
+    }
+  }
+
   @Nullable
   Curtain requestCurtain(@NonNull SceneInfo upper, @NonNull List<SceneInfo> lower) {
     Curtain curtain = null;
@@ -232,27 +364,132 @@ public final class Stage implements Iterable<Scene> {
     return curtain;
   }
 
-  private void changeScenes(
+  private void changeScenes(@NonNull SceneInfo upper, @NonNull List<SceneInfo> lower) {
+    updateCoveredScenes();
+
+    long timeout = getCurtainPostponeTimeout(upper, lower);
+    if (timeout >= 0) {
+      postponeCurtain(upper, lower, timeout);
+    } else {
+      executeCurtain(upper, lower);
+    }
+  }
+
+  // Only the top scene is in accessibility, focus and touch traversal
+  private void updateCoveredScenes() {
+    boolean isTop = true;
+    for (Scene scene : getVisibleScenes()) {
+      scene.setCovered(container, !isTop);
+      isTop = false;
+    }
+  }
+
+  // Returns the shortest postpone timeout of newly attached scenes, or -1 if none is postponed
+  private static long getCurtainPostponeTimeout(
+      @NonNull SceneInfo upper, @NonNull List<SceneInfo> lower) {
+    long timeout = -1;
+    if (upper.viewState == SceneInfo.NEWLY_ATTACHED && upper.scene.isCurtainPostponed()) {
+      timeout = upper.scene.getCurtainPostponeTimeout();
+    }
+    for (SceneInfo info : lower) {
+      if (info.viewState == SceneInfo.NEWLY_ATTACHED && info.scene.isCurtainPostponed()) {
+        long t = info.scene.getCurtainPostponeTimeout();
+        if (timeout < 0 || t < timeout) {
+          timeout = t;
+        }
+      }
+    }
+    return timeout;
+  }
+
+  private void postponeCurtain(
+      @NonNull SceneInfo upper, @NonNull List<SceneInfo> lower, long timeout) {
+    // Newly attached views are laid out but not drawn,
+    // the old scenes are still drawn until the curtain starts.
+    postponedCurtain = new PostponedCurtain(upper, lower);
+    postponedCurtain.hideViews();
+    getHandler().postDelayed(postponedCurtain, timeout);
+    updateRunningCurtainCount();
+    updateWindowCoverage();
+  }
+
+  /**
+   * Called by {@link Scene#startPostponedCurtain()}.
+   * Starts the postponed {@link Curtain} if no scene postpones it anymore.
+   */
+  void onPostponedCurtainReady() {
+    if (postponedCurtain != null && getCurtainPostponeTimeout(
+        postponedCurtain.upper, postponedCurtain.lower) < 0) {
+      executePostponedCurtain();
+    }
+  }
+
+  private void executePostponedCurtain() {
+    PostponedCurtain postponed = postponedCurtain;
+    postponedCurtain = null;
+    handler.removeCallbacks(postponed);
+
+    SceneInfo upper = postponed.upper;
+    List<SceneInfo> lower = postponed.lower;
+    // Ignore the scenes which haven't started the postponed curtain yet
+    upper.scene.clearCurtainPostponed();
+    for (SceneInfo info : lower) {
+      info.scene.clearCurtainPostponed();
+    }
+    postponed.restoreViews();
+
+    executeCurtain(upper, lower);
+  }
+
+  private void executeCurtain(
       @NonNull final SceneInfo upper, @NonNull final List<SceneInfo> lower) {
     Curtain curtain = getCurtain(upper, lower);
     if (curtain != null) {
       runningCurtain = curtain;
+      updateRunningCurtainCount();
+      // Scenes might be transformed in the curtain, show window background
+      updateWindowCoverage();
       curtain.execute(container, upper, lower, new Curtain.OnCompleteListener() {
         @Override
         public void onComplete() {
           runningCurtain = null;
           detachViewIfNecessary(upper);
           detachViewsIfNecessary(lower);
+          updateRunningCurtainCount();
+          updateWindowCoverage();
+          scheduleSnapshot();
         }
       });
     } else {
       detachViewIfNecessary(upper);
       detachViewsIfNecessary(lower);
+      // The postponed curtain might be replaced by nothing
+      updateRunningCurtainCount();
+      updateWindowCoverage();
+      scheduleSnapshot();
+    }
+  }
+
+  // The navigation settles, let the director take a snapshot
+  private void scheduleSnapshot() {
+    if (director != null) {
+      director.scheduleSnapshot();
+    }
+  }
+
+  /**
+   * Called by {@link Curtain#snapshot(ViewGroup, SceneInfo)}.
+   * Detaches the view before the running curtain completes.
+   */
+  void detachViewEarly(@NonNull SceneInfo info) {
+    if (runningCurtain != null) {
+      detachViewIfNecessary(info);
     }
   }
 
   private void detachViewIfNecessary(@NonNull SceneInfo info) {
-    if (info.viewState == SceneInfo.WILL_BE_DETACHED) {
+    if (info.viewState == SceneInfo.WILL_BE_DETACHED && !info.isDetached) {
+      info.isDetached = true;
       Scene scene = info.scene;
       if (info.isStarted) {
         scene.stop();
@@ -301,6 +538,148 @@ public final class Stage implements Iterable<Scene> {
     return scenes;
   }
 
+  /**
+   * Sets whether the window background should be cleared while the top {@link Scene}
+   * covers the window. {@code false} in default.
+   * <p>
+   * The top {@code Scene} covers the window if it's {@link Scene#OPAQUE},
+   * its view has an opaque background and fills the container,
+   * and the container fills the content area of the window.
+   * The window background is restored during {@link Curtain}s, or if the top
+   * {@code Scene} is {@link Scene#TRANSPARENT} or {@link Scene#TRANSLUCENT}.
+   * It saves one full-screen layer of overdraw.
+   * <p>
+   * Layout changes of the container and the top scene view are tracked.
+   * Call {@link #invalidateWindowCoverage()} after changing the background,
+   * alpha or translation of the top scene view.
+   */
+  public void setClearsWindowBackground(boolean clearsWindowBackground) {
+    if (this.clearsWindowBackground == clearsWindowBackground) {
+      return;
+    }
+    this.clearsWindowBackground = clearsWindowBackground;
+
+    if (container != null) {
+      if (clearsWindowBackground) {
+        startTrackingWindowCoverage();
+      } else {
+        stopTrackingWindowCoverage();
+      }
+    }
+  }
+
+  /**
+   * Returns {@code true} if the window background is cleared
+   * while the top {@link Scene} covers the window.
+   *
+   * @see #setClearsWindowBackground(boolean)
+   */
+  public boolean clearsWindowBackground() {
+    return clearsWindowBackground;
+  }
+
+  private void startTrackingWindowCoverage() {
+    if (onCoverageLayoutChangeListener == null) {
+      onCoverageLayoutChangeListener = new View.OnLayoutChangeListener() {
+        @Override
+        public void onLayoutChange(View v, int left, int top, int right, int bottom,
+            int oldLeft, int oldTop, int oldRight, int oldBottom) {
+          updateWindowCoverage();
+        }
+      };
+    }
+    container.addOnLayoutChangeListener(onCoverageLayoutChangeListener);
+    updateWindowCoverage();
+  }
+
+  private void stopTrackingWindowCoverage() {
+    if (onCoverageLayoutChangeListener != null) {
+      container.removeOnLayoutChangeListener(onCoverageLayoutChangeListener);
+    }
+    trackCoverageView(null);
+    setWindowCovered(false);
+  }
+
+  // Tracks layout changes of the top scene view
+  private void trackCoverageView(@Nullable View view) {
+    if (coverageView != view) {
+      if (coverageView != null) {
+        coverageView.removeOnLayoutChangeListener(onCoverageLayoutChangeListener);
+      }
+      coverageView = view;
+      if (view != null) {
+        view.addOnLayoutChangeListener(onCoverageLayoutChangeListener);
+      }
+    }
+  }
+
+  /**
+   * Recomputes whether the top {@link Scene} covers the window.
+   * Only works if {@link #clearsWindowBackground()}.
+   *
+   * @see #setClearsWindowBackground(boolean)
+   */
+  public void invalidateWindowCoverage() {
+    updateWindowCoverage();
+  }
+
+  private void updateWindowCoverage() {
+    if (clearsWindowBackground && container != null) {
+      Scene scene = getTopScene();
+      trackCoverageView(scene != null ? scene.getView() : null);
+      setWindowCovered(runningCurtain == null && postponedCurtain == null && isWindowCovered());
+    }
+  }
+
+  private void setWindowCovered(boolean covered) {
+    if (isWindowCovered != covered) {
+      isWindowCovered = covered;
+      if (director != null) {
+        director.setWindowCovered(this, covered);
+      }
+    }
+  }
+
+  // Returns true if the top scene covers the content area of the window
+  private boolean isWindowCovered() {
+    Scene scene = getTopScene();
+    if (scene == null || scene.getOpacity() != Scene.OPAQUE) {
+      return false;
+    }
+
+    View view = scene.getView();
+    if (view == null || view.getParent() != container || view.getVisibility() != View.VISIBLE
+        || view.getAlpha() < 1.0f || view.getTranslationX() != 0.0f
+        || view.getTranslationY() != 0.0f) {
+      return false;
+    }
+
+    Drawable background = view.getBackground();
+    if (background == null || background.getOpacity() != PixelFormat.OPAQUE) {
+      return false;
+    }
+
+    int width = container.getWidth();
+    int height = container.getHeight();
+    if (width == 0 || height == 0 || view.getLeft() > 0 || view.getTop() > 0
+        || view.getRight() < width || view.getBottom() < height) {
+      return false;
+    }
+
+    View content = container.getRootView().findViewById(android.R.id.content);
+    if (content == null) {
+      return false;
+    }
+    int[] containerLocation = new int[2];
+    int[] contentLocation = new int[2];
+    container.getLocationInWindow(containerLocation);
+    content.getLocationInWindow(contentLocation);
+    return containerLocation[0] <= contentLocation[0]
+        && containerLocation[1] <= contentLocation[1]
+        && containerLocation[0] + width >= contentLocation[0] + content.getWidth()
+        && containerLocation[1] + height >= contentLocation[1] + content.getHeight();
+  }
+
   /**
    * Returns {@code true} if this Stage has a container.
    */
@@ -318,10 +697,11 @@ public final class Stage implements Iterable<Scene> {
       }
     }
 
-    this.container = container;
+    // StageLayout might change the visibility, do it before setting the container
     if (container instanceof StageLayout) {
       ((StageLayout) container).addStage(this);
     }
+    this.container = container;
 
     // Restore views
     ArrayList<Scene> visible = getVisibleScenes();
@@ -334,6 +714,12 @@ public final class Stage implements Iterable<Scene> {
       if (isResumed && i == 0) {
         scene.resume();
       }
+      // No curtain for restoring views
+      scene.clearCurtainPostponed();
+    }
+    updateCoveredScenes();
+    if (clearsWindowBackground) {
+      startTrackingWindowCoverage();
     }
   }
 
@@ -343,76 +729,108 @@ public final class Stage implements Iterable<Scene> {
 
   void start() {
     if (DEBUG) {
-      if (isStarted) {
+      if (isHostStarted) {
         throw new IllegalStateException("This stage is started");
       }
-      if (isResumed) {
+      if (isHostResumed) {
         throw new IllegalStateException("This stage is resumed");
       }
     }
 
-    isStarted = true;
+    isHostStarted = true;
 
-    if (container != null) {
-      // All visible scenes should start
-      for (Scene scene : getVisibleScenes()) {
-        scene.start();
-      }
+    if (isVisible) {
+      startScenes();
     }
   }
 
   void resume() {
     if (DEBUG) {
-      if (!isStarted) {
+      if (!isHostStarted) {
         throw new IllegalStateException("This stage is not started");
       }
-      if (isResumed) {
+      if (isHostResumed) {
         throw new IllegalStateException("This stage is resumed");
       }
     }
 
-    isResumed = true;
+    isHostResumed = true;
 
-    if (container != null) {
-      // Only top scene should resume
-      Scene scene = getTopScene();
-      if (scene != null) {
-        scene.resume();
-      }
+    if (isVisible) {
+      resumeScenes();
     }
   }
 
   void pause() {
     if (DEBUG) {
-      if (!isStarted) {
+      if (!isHostStarted) {
         throw new IllegalStateException("This stage is not started");
       }
-      if (!isResumed) {
+      if (!isHostResumed) {
         throw new IllegalStateException("This stage is not resumed");
       }
     }
 
-    isResumed = false;
+    isHostResumed = false;
 
-    if (container != null) {
-      // Only top scene should pause
-      Scene scene = getTopScene();
-      if (scene != null) {
-        scene.pause();
-      }
+    if (isVisible) {
+      pauseScenes();
     }
   }
 
   void stop() {
     if (DEBUG) {
-      if (!isStarted) {
+      if (!isHostStarted) {
         throw new IllegalStateException("This stage is not started");
       }
-      if (isResumed) {
+      if (isHostResumed) {
         throw new IllegalStateException("This stage is resumed");
       }
     }
 
+    isHostStarted = false;
+
+    if (isVisible) {
+      stopScenes();
+    }
+  }
+
+  private void startScenes() {
+    isStarted = true;
+
+    if (container != null) {
+      // All visible scenes should start
+      for (Scene scene : getVisibleScenes()) {
+        scene.start();
+      }
+    }
+  }
+
+  private void resumeScenes() {
+    isResumed = true;
+
+    if (container != null) {
+      // Only top scene should resume
+      Scene scene = getTopScene();
+      if (scene != null) {
+        scene.resume();
+      }
+    }
+  }
+
+  private void pauseScenes() {
+    isResumed = false;
+
+    if (container != null) {
+      // Only top scene should pause
+      Scene scene = getTopScene();
+      if (scene != null) {
+        scene.pause();
+      }
+    }
+  }
+
+  private void stopScenes() {
     isStarted = false;
 
     if (container != null) {
@@ -423,11 +841,69 @@ public final class Stage implements Iterable<Scene> {
     }
   }
 
+  /**
+   * Sets whether the container of this {@code Stage} is visible for user.
+   * {@code true} in default.
+   * <p>
+   * Scenes of an invisible {@code Stage} are kept stopped even if
+   * the host is started, but their views are kept. It's useful for
+   * a {@code Stage} in an off-screen page or a hidden pane.
+   * {@link StageLayout} sets it according to its visibility while it's the container,
+   * and restores the previous value after that.
+   * <p>
+   * The value is kept after {@link #suspend()}.
+   *
+   * @see #isVisible()
+   */
+  public void setVisible(boolean visible) {
+    if (isVisible == visible || isDestroyed) {
+      return;
+    }
+
+    // SceneInfo of the running curtain records whether the scene is started
+    completeRunningCurtain();
+
+    isVisible = visible;
+
+    if (visible) {
+      if (isHostStarted) {
+        startScenes();
+      }
+      if (isHostResumed) {
+        resumeScenes();
+      }
+    } else {
+      if (isResumed) {
+        pauseScenes();
+      }
+      if (isStarted) {
+        stopScenes();
+      }
+    }
+  }
+
+  /**
+   * Returns {@code true} if the container of this {@code Stage} is visible for user.
+   *
+   * @see #setVisible(boolean)
+   */
+  public boolean isVisible() {
+    return isVisible;
+  }
+
   void setWillRecreate() {
     willRecreate = true;
   }
 
   void detach(boolean saveViewStateIfNecessary) {
+    detach(saveViewStateIfNecessary, 0);
+  }
+
+  /**
+   * Detaches views from the container of the destroyed activity.
+   * The views of scenes handling {@code changingConfigurations} are kept.
+   */
+  void detach(boolean saveViewStateIfNecessary, int changingConfigurations) {
     if (DEBUG) {
       if (isStarted) {
         throw new IllegalStateException("This stage is started");
@@ -441,14 +917,21 @@ public final class Stage implements Iterable<Scene> {
 
     if (container != null) {
       for (Scene scene : getVisibleScenes()) {
-        scene.detachView(container, true, saveViewStateIfNecessary);
+        boolean keepView = scene.canKeepView(changingConfigurations);
+        if (keepView) {
+          scene.keepView();
+        }
+        scene.detachView(container, !keepView, saveViewStateIfNecessary);
       }
 
+      stopTrackingWindowCoverage();
       // The activity is destroyed, can't attach views to this container
-      if (container instanceof StageLayout) {
-        ((StageLayout) container).removeStage(this);
-      }
+      ViewGroup oldContainer = container;
       container = null;
+      // It restores the visibility, no scene is started without container
+      if (oldContainer instanceof StageLayout) {
+        ((StageLayout) oldContainer).removeStage(this);
+      }
     }
   }
 
@@ -460,6 +943,10 @@ public final class Stage implements Iterable<Scene> {
     }
 
     isDestroyed = true;
+    delayedOperations.clear();
+    if (preparation != null) {
+      cancelPreparing(preparation.scene);
+    }
     stack.popAll(willRecreate);
     director = null;
   }
@@ -472,10 +959,36 @@ public final class Stage implements Iterable<Scene> {
     outState.putInt(KEY_ID, id);
 
     Bundle stackState = new Bundle();
-    stack.saveInstanceState(stackState);
+    boolean compact = director != null && director.isCompactSavedState();
+    if (preparation != null || !delayedOperations.isEmpty()) {
+      // The preparing scene and the operations after it aren't in the stack yet,
+      // save them as if they were operated, without interrupting the preparation.
+      SceneStack.Saving saving = stack.newSaving();
+      if (preparation != null) {
+        preparation.operator.save(saving, preparation.scene);
+      }
+      for (Operation operation : delayedOperations) {
+        operation.getOperator().save(saving, operation.getScene());
+      }
+      stack.saveInstanceState(saving, stackState, compact);
+    } else {
+      stack.saveInstanceState(stackState, compact);
+    }
     outState.putBundle(KEY_STACK, stackState);
   }
 
+  static int getSavedId(@NonNull Bundle savedInstanceState) {
+    return savedInstanceState.getInt(KEY_ID);
+  }
+
+  static void collectSceneClassNames(
+      @NonNull Bundle savedInstanceState, @NonNull Collection<String> classNames) {
+    Bundle bundle = savedInstanceState.getBundle(KEY_STACK);
+    if (bundle != null) {
+      SceneStack.collectSceneClassNames(bundle, classNames);
+    }
+  }
+
   // TODO restoreInstanceState() is always called after new Stage(), why not move it to the constructor?
   void restoreInstanceState(@NonNull Bundle savedInstanceState) {
     id = savedInstanceState.getInt(KEY_ID);
@@ -524,11 +1037,15 @@ public final class Stage implements Iterable<Scene> {
       scene.detachView(container, true, true);
     }
 
+    stopTrackingWindowCoverage();
+
     // Detach from the container
-    if (container instanceof StageLayout) {
-      ((StageLayout) container).removeStage(this);
-    }
+    ViewGroup oldContainer = container;
     container = null;
+    // It restores the visibility, no scene is started without container
+    if (oldContainer instanceof StageLayout) {
+      ((StageLayout) oldContainer).removeStage(this);
+    }
   }
 
   /**
@@ -637,12 +1154,7 @@ public final class Stage implements Iterable<Scene> {
    */
   @Nullable
   public Scene findSceneByTag(@NonNull String tag) {
-    for (Scene scene : stack) {
-      if (tag.equals(scene.getTag())) {
-        return scene;
-      }
-    }
-    return null;
+    return stack.findSceneByTag(tag);
   }
 
   /**
@@ -650,13 +1162,7 @@ public final class Stage implements Iterable<Scene> {
    */
   @Nullable
   public Scene findSceneById(int sceneId) {
-    for (Scene scene : stack) {
-      Scene result = scene.findSceneById(sceneId);
-      if (result != null) {
-        return result;
-      }
-    }
-    return null;
+    return stack.findSceneById(sceneId);
   }
 
   /**
@@ -808,14 +1314,115 @@ public final class Stage implements Iterable<Scene> {
     }
   }
 
+  // A Preparation runs Scene.onPrepare() in background, then continues the operation
+  private final class Preparation implements Callable<Void> {
+
+    private final Scene scene;
+    private final Operator operator;
+    private Bundle args;
+    private Future<?> future;
+
+    private final Runnable timeout = new Runnable() {
+      @Override
+      public void run() {
+        if (preparation == Preparation.this) {
+          Log.w(LOG_TAG, "onPrepare() timed out: " + scene);
+          completePreparing();
+        }
+      }
+    };
+
+    Preparation(@NonNull Scene scene, @NonNull Operator operator) {
+      this.scene = scene;
+      this.operator = operator;
+    }
+
+    @Override
+    public Void call() {
+      Object result = null;
+      Throwable error = null;
+      try {
+        result = scene.prepare(args);
+      } catch (Throwable e) {
+        error = e;
+      }
+
+      final Object finalResult = result;
+      final Throwable finalError = error;
+      getHandler().post(new Runnable() {
+        @Override
+        public void run() {
+          onPrepared(Preparation.this, finalResult, finalError);
+        }
+      });
+      return null;
+    }
+  }
+
+  // A PostponedCurtain waits for newly attached scenes to be ready, or the timeout
+  private final class PostponedCurtain implements Runnable {
+
+    private final SceneInfo upper;
+    private final List<SceneInfo> lower;
+
+    // Original visibilities of the upper view and the lower views
+    private final int[] visibilities;
+
+    PostponedCurtain(@NonNull SceneInfo upper, @NonNull List<SceneInfo> lower) {
+      this.upper = upper;
+      this.lower = lower;
+      this.visibilities = new int[lower.size() + 1];
+    }
+
+    void hideViews() {
+      hideView(upper, 0);
+      for (int i = 0, n = lower.size(); i < n; ++i) {
+        hideView(lower.get(i), i + 1);
+      }
+    }
+
+    private void hideView(@NonNull SceneInfo info, int index) {
+      if (info.viewState == SceneInfo.NEWLY_ATTACHED) {
+        visibilities[index] = info.view.getVisibility();
+        info.view.setVisibility(View.INVISIBLE);
+      }
+    }
+
+    // Restores visibilities, the views might be set GONE or INVISIBLE on purpose
+    void restoreViews() {
+      restoreView(upper, 0);
+      for (int i = 0, n = lower.size(); i < n; ++i) {
+        restoreView(lower.get(i), i + 1);
+      }
+    }
+
+    private void restoreView(@NonNull SceneInfo info, int index) {
+      if (info.viewState == SceneInfo.NEWLY_ATTACHED) {
+        info.view.setVisibility(visibilities[index]);
+      }
+    }
+
+    @Override
+    public void run() {
+      if (postponedCurtain == this) {
+        Log.w(LOG_TAG, "Postponed curtain timed out: " + upper.scene);
+        executePostponedCurtain();
+      }
+    }
+  }
+
   // A Operator handles Scene popping or pushing or something like that
   private abstract class Operator {
 
     void operate(@NonNull Scene scene) {
+      if (director != null) {
+        director.onSavedStateChanged();
+      }
       if (withViews(scene)) {
         operateWithViews(scene);
       } else {
         operateWithoutViews(scene);
+        scheduleSnapshot();
       }
     }
 
@@ -824,6 +1431,9 @@ public final class Stage implements Iterable<Scene> {
     abstract void operateWithViews(@NonNull Scene scene);
 
     abstract void operateWithoutViews(@NonNull Scene scene);
+
+    // Applies the operation to a stack to save, the scenes aren't touched
+    abstract void save(@NonNull SceneStack.Saving saving, @NonNull Scene scene);
   }
 
   private class Pop extends Operator {
@@ -895,6 +1505,11 @@ public final class Stage implements Iterable<Scene> {
     void operateWithoutViews(@NonNull Scene scene) {
       stack.pop(scene);
     }
+
+    @Override
+    void save(@NonNull SceneStack.Saving saving, @NonNull Scene scene) {
+      saving.pop(scene);
+    }
   }
 
   private class Push extends Operator {
@@ -951,6 +1566,11 @@ public final class Stage implements Iterable<Scene> {
     void operateWithoutViews(@NonNull Scene scene) {
       stack.push(scene);
     }
+
+    @Override
+    void save(@NonNull SceneStack.Saving saving, @NonNull Scene scene) {
+      saving.push(scene);
+    }
   }
 
   private class ReplaceTop extends Operator {
@@ -1059,6 +1679,12 @@ public final class Stage implements Iterable<Scene> {
       stack.pop();
       stack.push(scene);
     }
+
+    @Override
+    void save(@NonNull SceneStack.Saving saving, @NonNull Scene scene) {
+      saving.pop();
+      saving.push(scene);
+    }
   }
 
   private class SetRoot extends Operator {
@@ -1114,5 +1740,11 @@ public final class Stage implements Iterable<Scene> {
       stack.popAll(false);
       stack.push(scene);
     }
+
+    @Override
+    void save(@NonNull SceneStack.Saving saving, @NonNull Scene scene) {
+      saving.popAll();
+      saving.push(scene);
+    }
   }
 }
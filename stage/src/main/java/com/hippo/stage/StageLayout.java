@@ -21,6 +21,7 @@ package com.hippo.stage;
  */
 
 import android.content.Context;
+import android.graphics.Matrix;
 import android.os.Parcelable;
 import android.support.annotation.AttrRes;
 import android.support.annotation.NonNull;
@@ -28,19 +29,40 @@ import android.support.annotation.Nullable;
 import android.util.AttributeSet;
 import android.util.SparseArray;
 import android.view.MotionEvent;
+import android.view.View;
+import android.view.ViewParent;
 import android.widget.FrameLayout;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 /**
  * The standard container for a {@link Stage}.
  * It blocks touch even when curtain running,
- * requests focus when getting touch event,
- * disables children view states saving.
+ * blocks touch to scenes covered by the top scene,
+ * requests focus when a gesture starts,
+ * disables children view states saving,
+ * keeps {@link Stage}s stopped while it or one of its ancestors isn't visible.
  */
 public class StageLayout extends FrameLayout {
 
-  private Set<Stage> stageSet = new HashSet<>();
+  private static final int ALL_POINTER_ID_BITS = -1;
+
+  // Stages and their visibilities before added, which are restored after removed
+  private Map<Stage, Boolean> stageMap = new HashMap<>();
+  // The number of Stages which have curtain running
+  private int runningCurtainCount;
+
+  // Children which can't get touch events, the views of covered scenes
+  private final Set<View> touchBlockedChildren = new HashSet<>();
+  // Whether the current gesture is dispatched to children by this layout itself
+  private boolean isDispatchingTouch;
+  // Children which get pointers of the current gesture, the latest one first
+  private final ArrayList<TouchTarget> touchTargets = new ArrayList<>();
+  private final float[] tempPoint = new float[2];
+  private final Matrix tempMatrix = new Matrix();
 
   public StageLayout(@NonNull Context context) {
     super(context);
@@ -56,34 +78,309 @@ public class StageLayout extends FrameLayout {
   }
 
   void addStage(Stage stage) {
-    stageSet.add(stage);
+    stageMap.put(stage, stage.isVisible());
+    if (stage.hasCurtainRunning()) {
+      runningCurtainCount++;
+    }
+    stage.setVisible(isVisibleToUser());
   }
 
   void removeStage(Stage stage) {
-    stageSet.remove(stage);
+    Boolean visible = stageMap.remove(stage);
+    if (visible != null) {
+      if (stage.hasCurtainRunning()) {
+        runningCurtainCount--;
+      }
+      // The visibility of this layout doesn't affect the stage anymore
+      stage.setVisible(visible);
+    }
+  }
+
+  void onCurtainRunningChanged(boolean running) {
+    runningCurtainCount += running ? 1 : -1;
+  }
+
+  void setChildTouchBlocked(@NonNull View child, boolean blocked) {
+    if (blocked) {
+      touchBlockedChildren.add(child);
+    } else {
+      touchBlockedChildren.remove(child);
+    }
   }
 
   private void requestStageFocus() {
-    if (stageSet.size() > 0) {
-      stageSet.iterator().next().requestFocus();
+    if (stageMap.size() > 0) {
+      stageMap.keySet().iterator().next().requestFocus();
     }
   }
 
   private boolean hasCurtainRunning() {
-    if (stageSet.size() > 0) {
-      for (Stage stage : stageSet) {
-        if (stage.hasCurtainRunning()) {
-          return true;
-        }
+    return runningCurtainCount > 0;
+  }
+
+  private boolean isVisibleToUser() {
+    View view = this;
+    for (;;) {
+      if (view.getVisibility() != VISIBLE) {
+        return false;
+      }
+      ViewParent parent = view.getParent();
+      if (parent instanceof View) {
+        view = (View) parent;
+      } else {
+        return true;
+      }
+    }
+  }
+
+  @Override
+  protected void onVisibilityChanged(@NonNull View changedView, int visibility) {
+    super.onVisibilityChanged(changedView, visibility);
+    // It might be called in super constructor
+    if (stageMap != null && !stageMap.isEmpty()) {
+      boolean visible = isVisibleToUser();
+      for (Stage stage : new ArrayList<>(stageMap.keySet())) {
+        stage.setVisible(visible);
       }
     }
-    return false;
   }
 
   @Override
   public boolean onInterceptTouchEvent(MotionEvent ev) {
-    requestStageFocus();
-    return hasCurtainRunning() || super.onInterceptTouchEvent(ev);
+    boolean isDown = ev.getActionMasked() == MotionEvent.ACTION_DOWN;
+    if (isDown) {
+      requestStageFocus();
+    }
+    if (hasCurtainRunning()) {
+      return true;
+    }
+    if (isDown && !touchBlockedChildren.isEmpty()) {
+      // Dispatch the gesture by ourselves to skip blocked children
+      isDispatchingTouch = true;
+      return true;
+    }
+    return super.onInterceptTouchEvent(ev);
+  }
+
+  @Override
+  public boolean onTouchEvent(MotionEvent ev) {
+    if (!isDispatchingTouch) {
+      return super.onTouchEvent(ev);
+    }
+
+    int action = ev.getActionMasked();
+    if (action == MotionEvent.ACTION_DOWN) {
+      touchTargets.clear();
+    }
+
+    boolean handled = false;
+    TouchTarget newTarget = null;
+    if (hasCurtainRunning()) {
+      // Block the rest of the gesture like onInterceptTouchEvent() does
+      cancelTouchTargets(ev);
+      action = MotionEvent.ACTION_CANCEL;
+    } else {
+      if (action == MotionEvent.ACTION_DOWN
+          || (action == MotionEvent.ACTION_POINTER_DOWN && isMotionEventSplittingEnabled())) {
+        newTarget = addTouchTarget(ev);
+        handled = newTarget != null;
+      } else if (action == MotionEvent.ACTION_POINTER_DOWN && !touchTargets.isEmpty()) {
+        // Not split, all pointers go to the first target
+        touchTargets.get(0).pointerIdBits |= 1 << ev.getPointerId(ev.getActionIndex());
+      }
+
+      for (int i = 0, n = touchTargets.size(); i < n; i++) {
+        TouchTarget target = touchTargets.get(i);
+        // The new target has got the event
+        if (target != newTarget) {
+          handled |= dispatchTouchEventToChild(ev, target.child, target.pointerIdBits);
+        }
+      }
+    }
+
+    if (action == MotionEvent.ACTION_POINTER_UP) {
+      removePointer(ev.getPointerId(ev.getActionIndex()));
+    } else if (action == MotionEvent.ACTION_UP || action == MotionEvent.ACTION_CANCEL) {
+      touchTargets.clear();
+    }
+    if (touchTargets.isEmpty()) {
+      isDispatchingTouch = false;
+    }
+    return handled;
+  }
+
+  // Finds a child for the pointer which goes down,
+  // returns the new target if a child which isn't a target yet takes it
+  @Nullable
+  private TouchTarget addTouchTarget(MotionEvent ev) {
+    int index = ev.getActionIndex();
+    int idBit = 1 << ev.getPointerId(index);
+
+    // Top child first
+    for (int i = getChildCount() - 1; i >= 0; i--) {
+      View child = getChildAt(i);
+      if (child.getVisibility() != VISIBLE || touchBlockedChildren.contains(child)
+          || !isTouchPointInChild(ev, index, child)) {
+        continue;
+      }
+
+      TouchTarget target = getTouchTarget(child);
+      if (target != null) {
+        // Already a target, it gets the pointer with the others
+        target.pointerIdBits |= idBit;
+        return null;
+      }
+      if (dispatchTouchEventToChild(ev, child, idBit)) {
+        target = new TouchTarget(child, idBit);
+        touchTargets.add(0, target);
+        return target;
+      }
+    }
+
+    // No child takes it, assign it to the latest target
+    if (!touchTargets.isEmpty()) {
+      touchTargets.get(0).pointerIdBits |= idBit;
+    }
+    return null;
+  }
+
+  @Nullable
+  private TouchTarget getTouchTarget(View child) {
+    for (int i = 0, n = touchTargets.size(); i < n; i++) {
+      TouchTarget target = touchTargets.get(i);
+      if (target.child == child) {
+        return target;
+      }
+    }
+    return null;
+  }
+
+  private void removePointer(int id) {
+    for (int i = touchTargets.size() - 1; i >= 0; i--) {
+      TouchTarget target = touchTargets.get(i);
+      target.pointerIdBits &= ~(1 << id);
+      if (target.pointerIdBits == 0) {
+        touchTargets.remove(i);
+      }
+    }
+  }
+
+  private void cancelTouchTargets(MotionEvent ev) {
+    MotionEvent event = MotionEvent.obtain(ev);
+    event.setAction(MotionEvent.ACTION_CANCEL);
+    for (int i = 0, n = touchTargets.size(); i < n; i++) {
+      dispatchTouchEventToChild(event, touchTargets.get(i).child, ALL_POINTER_ID_BITS);
+    }
+    event.recycle();
+  }
+
+  // Maps the point into the child like ViewGroup, scale and rotation included
+  private boolean isTouchPointInChild(MotionEvent ev, int index, View child) {
+    float[] point = tempPoint;
+    point[0] = ev.getX(index) + getScrollX() - child.getLeft();
+    point[1] = ev.getY(index) + getScrollY() - child.getTop();
+    Matrix matrix = child.getMatrix();
+    if (!matrix.isIdentity()) {
+      matrix.invert(tempMatrix);
+      tempMatrix.mapPoints(point);
+    }
+    return point[0] >= 0 && point[1] >= 0
+        && point[0] < child.getWidth() && point[1] < child.getHeight();
+  }
+
+  private boolean dispatchTouchEventToChild(MotionEvent ev, View child, int pointerIdBits) {
+    MotionEvent event = splitMotionEvent(ev, pointerIdBits);
+    if (event == null) {
+      // None of its pointers in this event
+      return false;
+    }
+    event.offsetLocation(getScrollX() - child.getLeft(), getScrollY() - child.getTop());
+    Matrix matrix = child.getMatrix();
+    if (!matrix.isIdentity()) {
+      matrix.invert(tempMatrix);
+      event.transform(tempMatrix);
+    }
+    boolean handled = child.dispatchTouchEvent(event);
+    event.recycle();
+    return handled;
+  }
+
+  // Returns a new event only with the pointers in pointerIdBits,
+  // or null if none of them is in the event
+  @Nullable
+  private static MotionEvent splitMotionEvent(MotionEvent ev, int pointerIdBits) {
+    int count = ev.getPointerCount();
+    int idBits = 0;
+    for (int i = 0; i < count; i++) {
+      idBits |= 1 << ev.getPointerId(i);
+    }
+    idBits &= pointerIdBits;
+    if (idBits == 0) {
+      return null;
+    }
+    if (Integer.bitCount(idBits) == count) {
+      // All pointers, keep the history
+      return MotionEvent.obtain(ev);
+    }
+
+    int action = ev.getActionMasked();
+    int actionId = -1;
+    if (action == MotionEvent.ACTION_POINTER_DOWN || action == MotionEvent.ACTION_POINTER_UP) {
+      actionId = ev.getPointerId(ev.getActionIndex());
+      if ((idBits & (1 << actionId)) == 0) {
+        // The changed pointer isn't in it
+        action = MotionEvent.ACTION_MOVE;
+      }
+    }
+
+    int newCount = Integer.bitCount(idBits);
+    int[] indexes = new int[newCount];
+    MotionEvent.PointerProperties[] properties = new MotionEvent.PointerProperties[newCount];
+    MotionEvent.PointerCoords[] coords = new MotionEvent.PointerCoords[newCount];
+    int newAction = action;
+    for (int i = 0, j = 0; i < count; i++) {
+      int id = ev.getPointerId(i);
+      if ((idBits & (1 << id)) == 0) {
+        continue;
+      }
+      indexes[j] = i;
+      properties[j] = new MotionEvent.PointerProperties();
+      ev.getPointerProperties(i, properties[j]);
+      coords[j] = new MotionEvent.PointerCoords();
+      if (id == actionId && action != MotionEvent.ACTION_MOVE) {
+        if (newCount == 1) {
+          newAction = action == MotionEvent.ACTION_POINTER_DOWN
+              ? MotionEvent.ACTION_DOWN : MotionEvent.ACTION_UP;
+        } else {
+          newAction = action | (j << MotionEvent.ACTION_POINTER_INDEX_SHIFT);
+        }
+      }
+      j++;
+    }
+
+    // Keep the history like ViewGroup does, velocity tracking needs it
+    MotionEvent event = null;
+    int historySize = ev.getHistorySize();
+    for (int h = 0; h <= historySize; h++) {
+      boolean isHistory = h < historySize;
+      for (int j = 0; j < newCount; j++) {
+        if (isHistory) {
+          ev.getHistoricalPointerCoords(indexes[j], h, coords[j]);
+        } else {
+          ev.getPointerCoords(indexes[j], coords[j]);
+        }
+      }
+      long eventTime = isHistory ? ev.getHistoricalEventTime(h) : ev.getEventTime();
+      if (event == null) {
+        event = MotionEvent.obtain(ev.getDownTime(), eventTime, newAction, newCount,
+            properties, coords, ev.getMetaState(), ev.getButtonState(),
+            ev.getXPrecision(), ev.getYPrecision(), ev.getDeviceId(), ev.getEdgeFlags(),
+            ev.getSource(), ev.getFlags());
+      } else {
+        event.addBatch(eventTime, coords, ev.getMetaState());
+      }
+    }
+    return event;
   }
 
   @Override
@@ -95,4 +392,16 @@ public class StageLayout extends FrameLayout {
   protected void dispatchRestoreInstanceState(SparseArray<Parcelable> container) {
     dispatchThawSelfOnly(container);
   }
+
+  private static class TouchTarget {
+
+    private final View child;
+    // The ids of the pointers dispatched to the child
+    private int pointerIdBits;
+
+    private TouchTarget(View child, int pointerIdBits) {
+      this.child = child;
+      this.pointerIdBits = pointerIdBits;
+    }
+  }
 }
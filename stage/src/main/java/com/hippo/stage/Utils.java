@@ -21,26 +21,67 @@ package com.hippo.stage;
  */
 
 import android.support.annotation.NonNull;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
 
 final class Utils {
   private Utils() {}
 
-  private static final Map<String, Class<?>> sClassMap = new HashMap<>();
+  // It's filled by background threads too
+  private static final ConcurrentHashMap<String, Class<?>> sClassMap = new ConcurrentHashMap<>();
+
+  // Copy-on-write, read by restoring without lock
+  private static volatile SceneFactory[] sSceneFactories = new SceneFactory[0];
+
+  static synchronized void addSceneFactory(@NonNull SceneFactory factory) {
+    SceneFactory[] factories = sSceneFactories;
+    for (SceneFactory f : factories) {
+      if (f == factory) {
+        return;
+      }
+    }
+    SceneFactory[] newFactories = Arrays.copyOf(factories, factories.length + 1);
+    newFactories[factories.length] = factory;
+    sSceneFactories = newFactories;
+  }
+
+  /**
+   * Creates a scene by the registered {@link SceneFactory}s,
+   * or by reflection if no factory supports it.
+   */
+  @NonNull
+  static Scene newScene(String className) {
+    for (SceneFactory factory : sSceneFactories) {
+      Scene scene = factory.newScene(className);
+      if (scene != null) {
+        return scene;
+      }
+    }
+    return newInstance(className);
+  }
 
   @SuppressWarnings("unchecked")
   @NonNull
   static <T> T newInstance(String className) {
     try {
-      Class<?> clazz = sClassMap.get(className);
-      if (clazz == null) {
-        clazz = Class.forName(className);
-        sClassMap.put(className, clazz);
-      }
-      return (T) clazz.newInstance();
+      return (T) loadClass(className).newInstance();
     } catch (Throwable e) {
       throw new RuntimeException("Can't create a new instance of " + className, e);
     }
   }
+
+  /**
+   * Loads the class and caches it.
+   * It could be called on any thread, the class isn't initialized
+   * until an instance is created in {@link #newInstance(String)}.
+   */
+  @NonNull
+  static Class<?> loadClass(String className) throws ClassNotFoundException {
+    Class<?> clazz = sClassMap.get(className);
+    if (clazz == null) {
+      clazz = Class.forName(className, false, Utils.class.getClassLoader());
+      sClassMap.put(className, clazz);
+    }
+    return clazz;
+  }
 }
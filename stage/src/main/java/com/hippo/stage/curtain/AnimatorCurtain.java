@@ -23,7 +23,6 @@ package com.hippo.stage.curtain;
 import android.animation.Animator;
 import android.animation.AnimatorListenerAdapter;
 import android.animation.TimeInterpolator;
-import android.os.Build;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.view.View;
@@ -31,6 +30,7 @@ import android.view.ViewGroup;
 import android.view.ViewTreeObserver;
 import com.hippo.stage.Curtain;
 import com.hippo.stage.SceneInfo;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -43,9 +43,15 @@ public abstract class AnimatorCurtain extends Curtain {
   private ViewTreeObserver.OnPreDrawListener onPreDrawListener;
   private Animator animator;
   private OnCompleteListener listener;
+  private ViewGroup container;
+  private SceneInfo snapshot;
+  // Views switched to hardware layer
+  private List<View> layerViews;
 
   private long duration = -1;
   private TimeInterpolator interpolator;
+  private boolean snapshotEnabled;
+  private boolean hardwareLayerEnabled = true;
 
   /**
    * Sets duration for the {@link Animator} returned by
@@ -64,6 +70,34 @@ public abstract class AnimatorCurtain extends Curtain {
     this.interpolator = interpolator;
   }
 
+  /**
+   * Sets whether the view of the upper scene is replaced with a snapshot
+   * while the {@link Animator} is running, if it will be detached,
+   * like popping a scene. {@code false} in default.
+   * <p>
+   * The real view is detached and destroyed when the {@code Animator} starts,
+   * it saves memory and layout work of heavy views during transition.
+   *
+   * @see #snapshot(ViewGroup, SceneInfo)
+   */
+  public void setSnapshotEnabled(boolean snapshotEnabled) {
+    this.snapshotEnabled = snapshotEnabled;
+  }
+
+  /**
+   * Sets whether the views of animated scenes are rendered into hardware layers
+   * while the {@link Animator} is running. {@code true} in default.
+   * <p>
+   * Translation and alpha of a view in a hardware layer are applied without
+   * redrawing the view hierarchy. The original layer type is restored after
+   * the {@code Animator} ends. Views which already have a layer are not changed.
+   * Disable it if the content of a view changes during the transition,
+   * since it's redrawn into the layer on every frame.
+   */
+  public void setHardwareLayerEnabled(boolean hardwareLayerEnabled) {
+    this.hardwareLayerEnabled = hardwareLayerEnabled;
+  }
+
   @Override
   protected void completeImmediately() {
     if (view != null && onPreDrawListener != null) {
@@ -77,30 +111,20 @@ public abstract class AnimatorCurtain extends Curtain {
       animator = null;
     }
 
+    restoreLayers();
+    clearSnapshot();
+
     if (listener != null) {
       listener.onComplete();
       listener = null;
     }
   }
 
-  @Nullable
-  private View getFirstNonLaidOutView(@NonNull SceneInfo upper, @NonNull List<SceneInfo> lower) {
-    if (!isLaidOut(upper.view)) {
-      return upper.view;
-    }
-    for (SceneInfo info : lower) {
-      if (!isLaidOut(info.view)) {
-        return info.view;
-      }
-    }
-    return null;
-  }
-
   @Override
   protected void execute(@NonNull final ViewGroup container, @NonNull final SceneInfo upper,
       @NonNull final List<SceneInfo> lower, @NonNull final OnCompleteListener listener) {
     this.listener = listener;
-    view = getFirstNonLaidOutView(upper, lower);
+    view = CurtainUtils.getFirstNonLaidOutView(upper, lower);
     if (view != null) {
       onPreDrawListener = new ViewTreeObserver.OnPreDrawListener() {
         @Override
@@ -120,8 +144,20 @@ public abstract class AnimatorCurtain extends Curtain {
     }
   }
 
-  private void animate(@NonNull ViewGroup container, @NonNull final SceneInfo upper,
+  private void animate(@NonNull ViewGroup container, @NonNull SceneInfo originalUpper,
       @NonNull final List<SceneInfo> lower) {
+    final SceneInfo upper;
+    if (snapshotEnabled) {
+      // The overlay is drawn above all scenes, only the upper one keeps its z-order
+      upper = snapshot(container, originalUpper);
+      if (upper != originalUpper) {
+        this.container = container;
+        this.snapshot = upper;
+      }
+    } else {
+      upper = originalUpper;
+    }
+
     Animator animate = getAnimator(container, upper, lower);
     if (animate != null) {
       this.animator = animate;
@@ -135,15 +171,24 @@ public abstract class AnimatorCurtain extends Curtain {
         @Override
         public void onAnimationEnd(Animator animation) {
           animator = null;
+          restoreLayers();
           restore(upper, lower);
+          clearSnapshot();
           if (listener != null) {
             listener.onComplete();
             listener = null;
           }
         }
       });
+      if (hardwareLayerEnabled) {
+        enableLayer(upper);
+        for (SceneInfo info : lower) {
+          enableLayer(info);
+        }
+      }
       animate.start();
     } else {
+      clearSnapshot();
       if (listener != null) {
         listener.onComplete();
         listener = null;
@@ -151,6 +196,37 @@ public abstract class AnimatorCurtain extends Curtain {
     }
   }
 
+  private void enableLayer(@NonNull SceneInfo info) {
+    View view = info.view;
+    // A snapshot is drawn as one bitmap, a layer saves nothing
+    if (info.viewState == SceneInfo.NONE || info == snapshot
+        || view.getLayerType() != View.LAYER_TYPE_NONE || !view.isHardwareAccelerated()) {
+      return;
+    }
+    view.setLayerType(View.LAYER_TYPE_HARDWARE, null);
+    if (layerViews == null) {
+      layerViews = new ArrayList<>();
+    }
+    layerViews.add(view);
+  }
+
+  private void restoreLayers() {
+    if (layerViews != null) {
+      for (View view : layerViews) {
+        view.setLayerType(View.LAYER_TYPE_NONE, null);
+      }
+      layerViews = null;
+    }
+  }
+
+  private void clearSnapshot() {
+    if (container != null && snapshot != null) {
+      clearSnapshot(container, snapshot);
+    }
+    container = null;
+    snapshot = null;
+  }
+
   /**
    * Returns an {@link Animator} to show transition between {@link com.hippo.stage.Scene Scene}s.
    */
@@ -162,12 +238,4 @@ public abstract class AnimatorCurtain extends Curtain {
    * Will be called after the animator ends to reset the detached view to its pre-animation state.
    */
   protected abstract void restore(@NonNull SceneInfo upper, @NonNull List<SceneInfo> lower);
-
-  private static boolean isLaidOut(View view) {
-    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
-      return view.isLaidOut();
-    } else {
-      return view.getWidth() > 0 && view.getHeight() > 0;
-    }
-  }
 }
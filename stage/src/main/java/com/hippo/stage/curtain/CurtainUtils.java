@@ -0,0 +1,53 @@
+/*
+ * Copyright 2017 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.stage.curtain;
+
+import android.os.Build;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.view.View;
+import com.hippo.stage.SceneInfo;
+import java.util.List;
+
+final class CurtainUtils {
+  private CurtainUtils() {}
+
+  /**
+   * Returns the first view which isn't laid out, or {@code null}.
+   * Curtains wait for it to get the size of views.
+   */
+  @Nullable
+  static View getFirstNonLaidOutView(@NonNull SceneInfo upper, @NonNull List<SceneInfo> lower) {
+    if (!isLaidOut(upper.view)) {
+      return upper.view;
+    }
+    for (SceneInfo info : lower) {
+      if (!isLaidOut(info.view)) {
+        return info.view;
+      }
+    }
+    return null;
+  }
+
+  private static boolean isLaidOut(View view) {
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+      return view.isLaidOut();
+    } else {
+      return view.getWidth() > 0 && view.getHeight() > 0;
+    }
+  }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2017 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.stage.curtain;
+
+import android.animation.Animator;
+import android.animation.AnimatorListenerAdapter;
+import android.animation.TimeInterpolator;
+import android.os.Build;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.ViewPropertyAnimator;
+import android.view.ViewTreeObserver;
+import android.view.animation.AccelerateDecelerateInterpolator;
+import com.hippo.stage.Curtain;
+import com.hippo.stage.SceneInfo;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A {@code PropertyCurtain} uses a {@link ViewPropertyAnimator} for each view
+ * to show transition between {@link com.hippo.stage.Scene Scene}s.
+ * <p>
+ * Property changes of a view are applied together in each frame without reflection,
+ * and the view is rendered into a hardware layer by {@link ViewPropertyAnimator#withLayer()}.
+ */
+public abstract class PropertyCurtain extends Curtain {
+
+  // The same as ObjectAnimator
+  private static final long DEFAULT_DURATION = 300L;
+  private static final TimeInterpolator DEFAULT_INTERPOLATOR =
+      new AccelerateDecelerateInterpolator();
+
+  private View view;
+  private ViewTreeObserver.OnPreDrawListener onPreDrawListener;
+  private OnCompleteListener listener;
+  // Views being animated
+  private final List<View> views = new ArrayList<>();
+
+  private long duration = -1;
+  private TimeInterpolator interpolator;
+  private boolean hardwareLayerEnabled = true;
+
+  /**
+   * Sets duration for the {@link ViewPropertyAnimator}s.
+   * Negative value will be ignored.
+   */
+  public void setDuration(long duration) {
+    this.duration = duration;
+  }
+
+  /**
+   * Sets interpolator for the {@link ViewPropertyAnimator}s.
+   */
+  public void setInterpolator(@Nullable TimeInterpolator interpolator) {
+    this.interpolator = interpolator;
+  }
+
+  /**
+   * Sets whether the views are rendered into hardware layers while animating.
+   * {@code true} in default.
+   *
+   * @see AnimatorCurtain#setHardwareLayerEnabled(boolean)
+   */
+  public void setHardwareLayerEnabled(boolean hardwareLayerEnabled) {
+    this.hardwareLayerEnabled = hardwareLayerEnabled;
+  }
+
+  @Override
+  protected void completeImmediately() {
+    if (view != null && onPreDrawListener != null) {
+      view.getViewTreeObserver().removeOnPreDrawListener(onPreDrawListener);
+    }
+    view = null;
+    onPreDrawListener = null;
+
+    // Cancel without callbacks, then jump to the end state
+    for (View view : views) {
+      ViewPropertyAnimator animator = view.animate();
+      animator.setListener(null);
+      animator.cancel();
+      restore(view);
+    }
+    views.clear();
+
+    complete();
+  }
+
+  @Override
+  protected void execute(@NonNull final ViewGroup container, @NonNull final SceneInfo upper,
+      @NonNull final List<SceneInfo> lower, @NonNull final OnCompleteListener listener) {
+    this.listener = listener;
+    view = CurtainUtils.getFirstNonLaidOutView(upper, lower);
+    if (view != null) {
+      onPreDrawListener = new ViewTreeObserver.OnPreDrawListener() {
+        @Override
+        public boolean onPreDraw() {
+          if (view != null && onPreDrawListener != null) {
+            view.getViewTreeObserver().removeOnPreDrawListener(onPreDrawListener);
+          }
+          view = null;
+          onPreDrawListener = null;
+          startAnimations(container, upper, lower);
+          return true;
+        }
+      };
+      view.getViewTreeObserver().addOnPreDrawListener(onPreDrawListener);
+    } else {
+      startAnimations(container, upper, lower);
+    }
+  }
+
+  private void startAnimations(@NonNull ViewGroup container, @NonNull SceneInfo upper,
+      @NonNull List<SceneInfo> lower) {
+    startAnimation(container, upper, true);
+    for (SceneInfo info : lower) {
+      startAnimation(container, info, false);
+    }
+    if (views.isEmpty()) {
+      complete();
+    }
+  }
+
+  private void startAnimation(@NonNull ViewGroup container, @NonNull SceneInfo info,
+      boolean isUpper) {
+    if (info.viewState == SceneInfo.NONE) {
+      return;
+    }
+
+    final View view = info.view;
+    ViewPropertyAnimator animator = view.animate();
+    if (!animate(container, info, isUpper, animator)) {
+      return;
+    }
+
+    views.add(view);
+    // The animator of the view is shared, reset all
+    animator.setDuration(duration >= 0 ? duration : DEFAULT_DURATION)
+        .setInterpolator(interpolator != null ? interpolator : DEFAULT_INTERPOLATOR)
+        .setStartDelay(0)
+        .setListener(new AnimatorListenerAdapter() {
+          @Override
+          public void onAnimationEnd(Animator animation) {
+            view.animate().setListener(null);
+            if (views.remove(view)) {
+              restore(view);
+              if (views.isEmpty()) {
+                complete();
+              }
+            }
+          }
+        });
+    if (hardwareLayerEnabled && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+      animator.withLayer();
+    }
+    animator.start();
+  }
+
+  private void complete() {
+    if (listener != null) {
+      OnCompleteListener listener = this.listener;
+      this.listener = null;
+      listener.onComplete();
+    }
+  }
+
+  /**
+   * Sets the start values to the view of the scene, and the end values to the animator.
+   * Returns {@code false} if the view isn't animated, no value should be set to the animator.
+   * <p>
+   * It's only called for scenes whose {@link SceneInfo#viewState} isn't
+   * {@link SceneInfo#NONE}. The views are laid out.
+   */
+  protected abstract boolean animate(@NonNull ViewGroup container, @NonNull SceneInfo info,
+      boolean isUpper, @NonNull ViewPropertyAnimator animator);
+
+  /**
+   * Resets the properties changed in
+   * {@link #animate(ViewGroup, SceneInfo, boolean, ViewPropertyAnimator)}.
+   * Called after the animation of the view ends or is canceled.
+   */
+  protected abstract void restore(@NonNull View view);
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2017 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.stage.curtain;
+
+import android.support.annotation.NonNull;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.ViewPropertyAnimator;
+import com.hippo.stage.SceneInfo;
+
+/**
+ * A {@link PropertyCurtain} version of {@link FadeCurtain}.
+ */
+public class PropertyFadeCurtain extends PropertyCurtain {
+
+  @Override
+  protected boolean animate(@NonNull ViewGroup container, @NonNull SceneInfo info,
+      boolean isUpper, @NonNull ViewPropertyAnimator animator) {
+    if (info.viewState == SceneInfo.NEWLY_ATTACHED) {
+      info.view.setAlpha(0.0f);
+      animator.alpha(1.0f);
+    } else {
+      info.view.setAlpha(1.0f);
+      animator.alpha(0.0f);
+    }
+    return true;
+  }
+
+  @Override
+  protected void restore(@NonNull View view) {
+    view.setAlpha(1.0f);
+  }
+}
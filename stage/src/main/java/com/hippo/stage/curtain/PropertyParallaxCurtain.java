@@ -0,0 +1,48 @@
+/*
+ * Copyright 2017 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.stage.curtain;
+
+/**
+ * A {@link PropertySlideCurtain} which moves lower scenes slower than the upper scene.
+ */
+public class PropertyParallaxCurtain extends PropertySlideCurtain {
+
+  private static final float DEFAULT_PARALLAX = 0.3f;
+
+  /**
+   * Creates a {@code PropertyParallaxCurtain} with right {@code direction}.
+   */
+  public PropertyParallaxCurtain() {
+    this(ShiftCurtain.RIGHT);
+  }
+
+  /**
+   * Creates a {@code PropertyParallaxCurtain} with a {@code direction}.
+   */
+  public PropertyParallaxCurtain(@ShiftCurtain.Direction int direction) {
+    super(direction);
+    setParallax(DEFAULT_PARALLAX);
+  }
+
+  /**
+   * Sets the offset of lower scenes relative to the offset of the upper scene.
+   * {@code 0.3f} in default.
+   */
+  public void setParallax(float parallax) {
+    lowerOffset = parallax;
+  }
+}
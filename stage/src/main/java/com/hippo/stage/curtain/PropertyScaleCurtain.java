@@ -0,0 +1,68 @@
+/*
+ * Copyright 2017 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.stage.curtain;
+
+import android.support.annotation.NonNull;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.ViewPropertyAnimator;
+import com.hippo.stage.SceneInfo;
+
+/**
+ * A {@link PropertyCurtain} which scales and fades the upper scene.
+ * Lower scenes aren't animated.
+ */
+public class PropertyScaleCurtain extends PropertyCurtain {
+
+  private float scale = 0.9f;
+
+  /**
+   * Sets the scale of the upper scene when it's invisible. {@code 0.9f} in default.
+   */
+  public void setScale(float scale) {
+    this.scale = scale;
+  }
+
+  @Override
+  protected boolean animate(@NonNull ViewGroup container, @NonNull SceneInfo info,
+      boolean isUpper, @NonNull ViewPropertyAnimator animator) {
+    if (!isUpper) {
+      return false;
+    }
+
+    View view = info.view;
+    if (info.viewState == SceneInfo.NEWLY_ATTACHED) {
+      view.setScaleX(scale);
+      view.setScaleY(scale);
+      view.setAlpha(0.0f);
+      animator.scaleX(1.0f).scaleY(1.0f).alpha(1.0f);
+    } else {
+      view.setScaleX(1.0f);
+      view.setScaleY(1.0f);
+      view.setAlpha(1.0f);
+      animator.scaleX(scale).scaleY(scale).alpha(0.0f);
+    }
+    return true;
+  }
+
+  @Override
+  protected void restore(@NonNull View view) {
+    view.setScaleX(1.0f);
+    view.setScaleY(1.0f);
+    view.setAlpha(1.0f);
+  }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2017 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.stage.curtain;
+
+import android.support.annotation.NonNull;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.ViewPropertyAnimator;
+import com.hippo.stage.SceneInfo;
+
+/**
+ * A {@link PropertyCurtain} version of {@link ShiftCurtain}.
+ */
+public class PropertySlideCurtain extends PropertyCurtain {
+
+  @ShiftCurtain.Direction
+  private int direction = ShiftCurtain.RIGHT;
+
+  // The offset of lower scenes relative to the size of the container
+  float lowerOffset = 1.0f;
+
+  /**
+   * Creates a {@code PropertySlideCurtain} with right {@code direction}.
+   */
+  public PropertySlideCurtain() {
+    this(ShiftCurtain.RIGHT);
+  }
+
+  /**
+   * Creates a {@code PropertySlideCurtain} with a {@code direction}.
+   */
+  public PropertySlideCurtain(@ShiftCurtain.Direction int direction) {
+    setDirection(direction);
+  }
+
+  /**
+   * Sets direction for new pushed scene.
+   */
+  public void setDirection(@ShiftCurtain.Direction int direction) {
+    this.direction = direction;
+  }
+
+  @ShiftCurtain.Direction
+  private static int reverseDirection(@ShiftCurtain.Direction int direction) {
+    switch (direction) {
+      case ShiftCurtain.LEFT:
+        return ShiftCurtain.RIGHT;
+      case ShiftCurtain.TOP:
+        return ShiftCurtain.BOTTOM;
+      default:
+      case ShiftCurtain.RIGHT:
+        return ShiftCurtain.LEFT;
+      case ShiftCurtain.BOTTOM:
+        return ShiftCurtain.TOP;
+    }
+  }
+
+  @Override
+  protected boolean animate(@NonNull ViewGroup container, @NonNull SceneInfo info,
+      boolean isUpper, @NonNull ViewPropertyAnimator animator) {
+    int direction = isUpper ? this.direction : reverseDirection(this.direction);
+    boolean horizontal = direction == ShiftCurtain.LEFT || direction == ShiftCurtain.RIGHT;
+    float offset = horizontal ? container.getWidth() : container.getHeight();
+    if (!isUpper) {
+      offset *= lowerOffset;
+    }
+    if (direction == ShiftCurtain.LEFT || direction == ShiftCurtain.TOP) {
+      offset = -offset;
+    }
+
+    boolean isFrom = info.viewState == SceneInfo.NEWLY_ATTACHED;
+    float start = isFrom ? offset : 0.0f;
+    float end = isFrom ? 0.0f : offset;
+    if (horizontal) {
+      info.view.setTranslationX(start);
+      animator.translationX(end);
+    } else {
+      info.view.setTranslationY(start);
+      animator.translationY(end);
+    }
+    return true;
+  }
+
+  @Override
+  protected void restore(@NonNull View view) {
+    view.setTranslationX(0.0f);
+    view.setTranslationY(0.0f);
+  }
+}
@@ -25,6 +25,7 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import android.os.Bundle;
+import android.support.annotation.NonNull;
 import com.hippo.stage.util.Reflections;
 import com.hippo.stage.util.TestContainer;
 import org.junit.Before;
@@ -113,4 +114,42 @@ public class ChildDirectorTest {
     Scene newChildScene = newChildStage.getTopScene();
     assertEquals("100", newChildScene.getTag());
   }
+
+  @Test
+  public void testRootLifecycleListener() {
+    final StringBuilder events = new StringBuilder();
+    Scene.LifecycleListener listener = new Scene.LifecycleListener() {
+      @Override
+      public void onStart(@NonNull Scene scene) {
+        events.append('S');
+      }
+      @Override
+      public void onResume(@NonNull Scene scene) {
+        events.append('R');
+      }
+      @Override
+      public void onPause(@NonNull Scene scene) {
+        events.append('P');
+      }
+    };
+
+    Director director = scene.hireChildDirector();
+    Stage childStage = director.direct(new TestContainer(RuntimeEnvironment.application));
+    childStage.pushScene(new TestScene());
+    // Added to the root director
+    director.addLifecycleListener(listener,
+        Scene.LifecycleListener.EVENT_START | Scene.LifecycleListener.EVENT_RESUME);
+
+    stage.start();
+    stage.resume();
+    assertEquals("SSRR", events.toString());
+
+    // Pause isn't subscribed
+    stage.pause();
+    assertEquals("SSRR", events.toString());
+
+    stage.getDirector().removeLifecycleListener(listener);
+    stage.resume();
+    assertEquals("SSRR", events.toString());
+  }
 }
@@ -22,18 +22,32 @@ package com.hippo.stage;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import android.os.Bundle;
 import android.support.annotation.IdRes;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.view.ViewGroup;
 import com.hippo.stage.util.ActivityProxy;
 import com.hippo.stage.util.TestContainer;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.RuntimeEnvironment;
 import org.robolectric.annotation.Config;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 @RunWith(RobolectricTestRunner.class)
 @Config(manifest = Config.NONE)
@@ -180,4 +194,253 @@ public class DirectorTest {
     proxy.restoreFromSavedState().start().resume();
     assertFalse(proxy.get().getDirector().contains(0));
   }
+
+  @Test
+  public void testCollectSceneClassNames() {
+    Stage stage = director.direct(new TestContainer(RuntimeEnvironment.application));
+    stage.pushScene(new TestScene());
+    TestScene scene = new TestScene();
+    stage.pushScene(scene);
+    Stage childStage = scene.installStage(1);
+    childStage.pushScene(new ChildScene());
+
+    Bundle state = new Bundle();
+    director.saveInstanceState(state);
+
+    Set<String> classNames = new LinkedHashSet<>();
+    Director.collectSceneClassNames(state, classNames);
+    assertEquals(Arrays.asList(TestScene.class.getName(), ChildScene.class.getName()),
+        new ArrayList<>(classNames));
+  }
+
+  public static class ChildScene extends TestScene {}
+
+  @Test
+  public void testLazyRestoreStages() {
+    director.direct(1).pushScene(new TestScene());
+    director.direct(2).pushScene(new TestScene());
+    Bundle state = new Bundle();
+    director.saveInstanceState(state);
+
+    Director newDirector = new DumpDirector();
+    newDirector.restoreInstanceState(state);
+    assertTrue(newDirector.contains(1));
+    assertTrue(newDirector.contains(2));
+
+    Stage stage1 = newDirector.get(1);
+    assertEquals(1, stage1.getSceneCount());
+
+    // The untouched saved state is written back
+    Bundle newState = new Bundle();
+    newDirector.saveInstanceState(newState);
+    Director director3 = new DumpDirector();
+    director3.restoreInstanceState(newState);
+    assertEquals(1, director3.direct(2).getSceneCount());
+  }
+
+  @Test
+  public void testExpandSavedStageStates() {
+    director.direct(1).pushScene(new TestScene());
+    director.direct(2).pushScene(new TestScene());
+    Bundle state = new Bundle();
+    director.saveInstanceState(state);
+
+    Director newDirector = new DumpDirector();
+    newDirector.restoreInstanceState(state);
+    newDirector.expandSavedStageStates();
+    // It waits for the expansion or restores synchronously
+    assertEquals(1, newDirector.get(1).getSceneCount());
+
+    Bundle newState = new Bundle();
+    newDirector.saveInstanceState(newState);
+    Director director3 = new DumpDirector();
+    director3.restoreInstanceState(newState);
+    assertEquals(1, director3.direct(2).getSceneCount());
+  }
+
+  @Test
+  public void testSnapshotStore() {
+    SnapshotStore store = new SnapshotStore(RuntimeEnvironment.application, "test");
+    store.clear();
+    director.setSnapshotStore(store);
+
+    Stage stage = director.direct(1);
+    stage.pushScene(new TestScene());
+    stage.pushScene(new TestScene());
+    // Debounced
+    assertNull(store.read());
+
+    Robolectric.flushForegroundThreadScheduler();
+    Bundle state = store.read();
+    assertNotNull(state);
+
+    Director newDirector = new DumpDirector();
+    newDirector.restoreInstanceState(state);
+    assertEquals(2, newDirector.direct(1).getSceneCount());
+
+    store.clear();
+    assertNull(store.read());
+  }
+
+  @Test
+  public void testSnapshotWithoutSideEffects() {
+    final int[] measured = new int[1];
+    SavedStateBudget budget = new SavedStateBudget(RuntimeEnvironment.application, 8 * 1024);
+    budget.setListener(new SavedStateBudget.Listener() {
+      @Override
+      public void onSaveMeasured(
+          int size, int budget, @NonNull List<SavedStateBudget.Record> result) {
+        measured[0]++;
+      }
+    });
+    director.setSavedStateBudget(budget);
+    SnapshotStore store = new SnapshotStore(RuntimeEnvironment.application, "test");
+    store.clear();
+    director.setSnapshotStore(store);
+
+    Stage stage = director.direct(1);
+    stage.pushScene(new TestScene());
+    StagePrepareTest.PrepareScene scene = new StagePrepareTest.PrepareScene(true);
+    stage.pushScene(scene);
+
+    // Before the prepare timeout
+    Robolectric.getForegroundThreadScheduler().advanceBy(1000, TimeUnit.MILLISECONDS);
+    Bundle state = store.read();
+    assertNotNull(state);
+    // Not measured by the budget
+    assertEquals(0, measured[0]);
+    // The preparing scene isn't forced to be pushed, but it's in the snapshot
+    assertEquals(1, stage.getSceneCount());
+    Director newDirector = new DumpDirector();
+    newDirector.restoreInstanceState(state);
+    assertEquals(2, newDirector.direct(1).getSceneCount());
+
+    scene.latch.countDown();
+    store.clear();
+  }
+
+  @Test
+  public void testSavedStateBudget() {
+    final List<SavedStateBudget.Record> records = new ArrayList<>();
+    SavedStateBudget budget = new SavedStateBudget(RuntimeEnvironment.application, 8 * 1024);
+    budget.setListener(new SavedStateBudget.Listener() {
+      @Override
+      public void onSaveMeasured(
+          int size, int budget, @NonNull List<SavedStateBudget.Record> result) {
+        assertTrue(size <= budget);
+        records.addAll(result);
+      }
+    });
+    director.setSavedStateBudget(budget);
+
+    Stage stage = director.direct(1);
+    stage.pushScene(new TestScene());
+    Scene scene = new TestScene();
+    Bundle args = new Bundle();
+    args.putByteArray("data", new byte[16 * 1024]);
+    scene.setArgs(args);
+    stage.pushScene(scene);
+
+    Bundle state = new Bundle();
+    director.saveInstanceState(state);
+    assertEquals(2, records.size());
+    assertEquals(scene.getId(), records.get(0).getSceneId());
+    assertTrue(records.get(0).isArgsSpilled());
+    assertFalse(records.get(1).isArgsSpilled());
+
+    final List<Bundle> createdArgs = new ArrayList<>();
+    Director newDirector = new DumpDirector();
+    newDirector.addLifecycleListener(new Scene.LifecycleListener() {
+      @Override
+      public void onCreate(@NonNull Scene scene, @NonNull Bundle args) {
+        createdArgs.add(args);
+      }
+    }, Scene.LifecycleListener.EVENT_CREATE);
+    newDirector.restoreInstanceState(state);
+    newDirector.direct(1);
+    // Only the top scene is restored, with the spilled args resolved
+    assertEquals(1, createdArgs.size());
+    assertEquals(16 * 1024, createdArgs.get(0).getByteArray("data").length);
+  }
+
+  @Test
+  public void testSpilledFileLifetime() throws IOException {
+    SavedStateBudget budget = new SavedStateBudget(RuntimeEnvironment.application, 8 * 1024);
+    File dir = SavedStateBudget.getDir(RuntimeEnvironment.application);
+    director.setSavedStateBudget(budget);
+
+    Stage stage = director.direct(1);
+    Scene scene = new TestScene();
+    Bundle args = new Bundle();
+    args.putByteArray("data", new byte[16 * 1024]);
+    scene.setArgs(args);
+    stage.pushScene(scene);
+
+    Bundle state = new Bundle();
+    director.saveInstanceState(state);
+    List<String> files = Director.getSpilledFiles(state);
+    assertNotNull(files);
+    assertEquals(1, files.size());
+    File spilled = new File(dir, files.get(0));
+
+    // Not restored yet, the state is written back with the reference
+    Director newDirector = new DumpDirector();
+    newDirector.setSavedStateBudget(budget);
+    newDirector.restoreInstanceState(state);
+    Bundle newState = new Bundle();
+    newDirector.saveInstanceState(newState);
+    assertEquals(files, Director.getSpilledFiles(newState));
+    // Left before process death, referenced by no manifest
+    File orphan = new File(dir, "orphan");
+    assertTrue(orphan.createNewFile());
+    SavedStateBudget.deleteOrphans(dir);
+    assertTrue(spilled.isFile());
+    assertFalse(orphan.exists());
+
+    // Restored, it's spilled to a new file
+    newDirector.direct(1);
+    newState = new Bundle();
+    newDirector.saveInstanceState(newState);
+    List<String> newFiles = Director.getSpilledFiles(newState);
+    assertNotNull(newFiles);
+    assertFalse(newFiles.contains(files.get(0)));
+    SavedStateBudget.deleteOrphans(dir);
+    assertFalse(spilled.exists());
+    File newSpilled = new File(dir, newFiles.get(0));
+    assertTrue(newSpilled.isFile());
+
+    // The saved state will never be restored
+    newDirector.finish(false);
+    SavedStateBudget.deleteOrphans(dir);
+    assertFalse(newSpilled.exists());
+  }
+
+  @Test
+  public void testSceneFactory() {
+    final int[] created = new int[1];
+    Director.registerSceneFactory(new SceneFactory() {
+      @Nullable
+      @Override
+      public Scene newScene(@NonNull String className) {
+        if (TestScene.class.getName().equals(className)) {
+          created[0]++;
+          return new TestScene();
+        }
+        return null;
+      }
+    });
+
+    // All scenes are visible, so all are restored
+    Stage stage = director.direct(1);
+    for (int i = 0; i < 200; i++) {
+      stage.pushScene(TestScene.create(i, Scene.TRANSPARENT, false));
+    }
+    Bundle state = new Bundle();
+    director.saveInstanceState(state);
+
+    Director newDirector = new DumpDirector();
+    newDirector.restoreInstanceState(state);
+    assertEquals(200, newDirector.direct(1).getSceneCount());
+    assertEquals(200, created[0]);
+  }
 }
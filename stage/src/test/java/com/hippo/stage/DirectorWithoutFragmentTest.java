@@ -0,0 +1,80 @@
+/*
+ * Copyright 2017 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.stage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.app.Activity;
+import android.os.Bundle;
+import android.support.annotation.Nullable;
+import com.hippo.stage.util.Reflections;
+import com.hippo.stage.util.TestContainer;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.android.controller.ActivityController;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class DirectorWithoutFragmentTest {
+
+  @Test
+  public void testLifecycle() {
+    ActivityController<DirectActivity> controller =
+        Robolectric.buildActivity(DirectActivity.class).create();
+    Stage stage = controller.get().stage;
+    TestScene scene = TestScene.create(1, Scene.OPAQUE, false);
+    stage.pushScene(scene);
+    // Attached in onCreate()
+    assertTrue(scene.getLifecycleState().isViewAttached());
+
+    controller.start();
+    assertEquals(true, Reflections.isStarted(stage));
+    assertEquals(false, Reflections.isResumed(stage));
+
+    controller.resume();
+    assertEquals(true, Reflections.isResumed(stage));
+
+    controller.pause().stop();
+    assertEquals(false, Reflections.isStarted(stage));
+    assertEquals(false, Reflections.isResumed(stage));
+
+    controller.get().finish();
+    controller.destroy();
+    assertTrue(scene.getLifecycleState().hasDestroyed());
+  }
+
+  public static class DirectActivity extends Activity {
+
+    private Stage stage;
+
+    @Override
+    protected void onCreate(@Nullable Bundle savedInstanceState) {
+      super.onCreate(savedInstanceState);
+
+      Director director = Director.hireWithoutFragment(
+          this, savedInstanceState, getLastNonConfigurationInstance());
+      TestContainer container = new TestContainer(this);
+      container.setId(1);
+      setContentView(container);
+      stage = director.direct(container);
+    }
+  }
+}
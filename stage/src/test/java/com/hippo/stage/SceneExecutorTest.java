@@ -0,0 +1,170 @@
+/*
+ * Copyright 2017 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.stage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.hippo.stage.util.TestContainer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class SceneExecutorTest {
+
+  private static final long TIMEOUT = 5;
+
+  // Occupies all threads of the pool
+  private SceneExecutor blocker;
+  private CountDownLatch[] releases;
+
+  @Before
+  public void before() throws InterruptedException {
+    blocker = new SceneExecutor(SceneExecutor.PRIORITY_TOP);
+    releases = new CountDownLatch[BackgroundExecutor.POOL_SIZE];
+    final CountDownLatch started = new CountDownLatch(releases.length);
+    for (int i = 0; i < releases.length; i++) {
+      final CountDownLatch release = new CountDownLatch(1);
+      releases[i] = release;
+      blocker.execute(new Runnable() {
+        @Override
+        public void run() {
+          started.countDown();
+          try {
+            release.await();
+          } catch (InterruptedException e) {
+            // Ignore
+          }
+        }
+      });
+    }
+    assertTrue(started.await(TIMEOUT, TimeUnit.SECONDS));
+  }
+
+  @After
+  public void after() {
+    blocker.shutdown();
+  }
+
+  private static Callable<Void> record(final List<String> records, final String name) {
+    return new Callable<Void>() {
+      @Override
+      public Void call() {
+        records.add(name);
+        return null;
+      }
+    };
+  }
+
+  @Test
+  public void testPriority() throws Exception {
+    List<String> records = Collections.synchronizedList(new ArrayList<String>());
+    SceneExecutor hibernated = new SceneExecutor(SceneExecutor.PRIORITY_HIBERNATED);
+    SceneExecutor visible = new SceneExecutor(SceneExecutor.PRIORITY_VISIBLE);
+    SceneExecutor top = new SceneExecutor(SceneExecutor.PRIORITY_DETACHED);
+    Future<?> f1 = hibernated.submit(record(records, "hibernated"));
+    Future<?> f2 = visible.submit(record(records, "visible"));
+    Future<?> f3 = top.submit(record(records, "top"));
+    // The priority is changed after submitting
+    top.setPriority(SceneExecutor.PRIORITY_TOP);
+
+    // Only one thread is free, so tasks run one by one
+    releases[0].countDown();
+    f1.get(TIMEOUT, TimeUnit.SECONDS);
+    f2.get(TIMEOUT, TimeUnit.SECONDS);
+    f3.get(TIMEOUT, TimeUnit.SECONDS);
+    assertEquals(Arrays.asList("top", "visible", "hibernated"), records);
+  }
+
+  @Test
+  public void testCancel() throws Exception {
+    List<String> records = Collections.synchronizedList(new ArrayList<String>());
+    SceneExecutor executor = new SceneExecutor(SceneExecutor.PRIORITY_TOP);
+    Future<?> cancelled = executor.submit(record(records, "cancelled"));
+    Future<?> kept = executor.submit(record(records, "kept"));
+    assertTrue(cancelled.cancel(true));
+
+    releases[0].countDown();
+    kept.get(TIMEOUT, TimeUnit.SECONDS);
+    assertTrue(cancelled.isCancelled());
+    assertEquals(Collections.singletonList("kept"), records);
+  }
+
+  @Test
+  public void testShutdownOnDestroy() throws Exception {
+    Stage stage = new Stage(new DumpDirector());
+    stage.setContainer(new TestContainer(RuntimeEnvironment.application));
+    Scene scene = new TestScene();
+    stage.pushScene(scene);
+
+    // A free thread for the running task
+    releases[0].countDown();
+    final CountDownLatch running = new CountDownLatch(1);
+    final AtomicBoolean interrupted = new AtomicBoolean();
+    final CountDownLatch finished = new CountDownLatch(1);
+    Future<?> runningTask = scene.submitBackgroundTask(new Callable<Void>() {
+      @Override
+      public Void call() {
+        running.countDown();
+        try {
+          Thread.sleep(TimeUnit.SECONDS.toMillis(TIMEOUT));
+        } catch (InterruptedException e) {
+          interrupted.set(true);
+        }
+        finished.countDown();
+        return null;
+      }
+    });
+    assertTrue(running.await(TIMEOUT, TimeUnit.SECONDS));
+    // No free thread for the pending task
+    List<String> records = Collections.synchronizedList(new ArrayList<String>());
+    Future<?> pendingTask = scene.submitBackgroundTask(record(records, "pending"));
+
+    scene.pop();
+    assertTrue(scene.getLifecycleState().hasDestroyed());
+    assertTrue(runningTask.isCancelled());
+    assertTrue(pendingTask.isCancelled());
+    assertTrue(finished.await(TIMEOUT, TimeUnit.SECONDS));
+    assertTrue(interrupted.get());
+
+    boolean rejected = false;
+    try {
+      scene.submitBackgroundTask(record(records, "rejected"));
+    } catch (RejectedExecutionException e) {
+      rejected = true;
+    }
+    assertTrue(rejected);
+    assertFalse(records.contains("pending"));
+  }
+}
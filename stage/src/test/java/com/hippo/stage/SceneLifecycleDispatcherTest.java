@@ -0,0 +1,111 @@
+/*
+ * Copyright 2017 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.stage;
+
+import static org.junit.Assert.assertEquals;
+
+import com.hippo.stage.util.TestContainer;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class SceneLifecycleDispatcherTest {
+
+  private Stage stage;
+  private List<String> record;
+
+  @Before
+  public void before() {
+    Director director = new DumpDirector();
+    stage = new Stage(director);
+    stage.setContainer(new TestContainer(RuntimeEnvironment.application));
+    record = new ArrayList<>();
+  }
+
+  private Runnable task(final String name) {
+    return new Runnable() {
+      @Override
+      public void run() {
+        record.add(name);
+      }
+    };
+  }
+
+  @Test
+  public void testRunWhenStartedImmediately() {
+    stage.start();
+    Scene scene = new TestScene();
+    stage.pushScene(scene);
+
+    scene.runWhenStarted("key", task("a"));
+    assertEquals(1, record.size());
+  }
+
+  @Test
+  public void testRunWhenStartedCoalesce() {
+    Scene scene = new TestScene();
+    stage.pushScene(scene);
+
+    for (int i = 0; i < 500; i++) {
+      scene.runWhenStarted("key", task("a" + i));
+    }
+    scene.runWhenStarted("other", task("b"));
+    scene.runWhenResumed("key", task("c"));
+    assertEquals(0, record.size());
+
+    stage.start();
+    assertEquals(2, record.size());
+    assertEquals("a499", record.get(0));
+    assertEquals("b", record.get(1));
+
+    stage.resume();
+    assertEquals(3, record.size());
+    assertEquals("c", record.get(2));
+  }
+
+  @Test
+  public void testDropWhenViewDestroyed() {
+    Scene scene1 = new TestScene();
+    stage.pushScene(scene1);
+    scene1.runWhenStarted("key", task("a"));
+
+    // The view of scene1 is destroyed
+    stage.pushScene(new TestScene());
+    stage.popTopScene();
+
+    stage.start();
+    assertEquals(0, record.size());
+  }
+
+  @Test
+  public void testCancelPendingTask() {
+    Scene scene = new TestScene();
+    stage.pushScene(scene);
+    scene.runWhenStarted("key", task("a"));
+    scene.cancelPendingTask("key");
+
+    stage.start();
+    assertEquals(0, record.size());
+  }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2017 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.stage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.view.LayoutInflater;
+import android.view.MotionEvent;
+import android.view.View;
+import android.view.ViewGroup;
+import com.hippo.stage.util.TimingCurtainSuppler;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class StageLayoutTest {
+
+  private static final int SIZE = 100;
+
+  private StageLayout layout;
+  private Stage stage;
+  private TouchView bottom;
+  private TouchView top;
+
+  @Before
+  public void before() {
+    layout = new StageLayout(RuntimeEnvironment.application);
+    layout.setMotionEventSplittingEnabled(true);
+    stage = new Stage(new DumpDirector());
+    stage.setContainer(layout);
+
+    TouchScene bottomScene = new TouchScene();
+    TouchScene topScene = new TouchScene();
+    topScene.setOpacity(Scene.TRANSLUCENT);
+    stage.pushScene(bottomScene);
+    stage.pushScene(topScene);
+    bottom = (TouchView) bottomScene.getView();
+    top = (TouchView) topScene.getView();
+
+    int spec = View.MeasureSpec.makeMeasureSpec(SIZE, View.MeasureSpec.EXACTLY);
+    layout.measure(spec, spec);
+    layout.layout(0, 0, SIZE, SIZE);
+    // The top scene only covers the left half
+    top.layout(0, 0, SIZE / 2, SIZE);
+  }
+
+  @Test
+  public void testCoveredChildBlocked() {
+    layout.dispatchTouchEvent(obtain(MotionEvent.ACTION_DOWN, 75, 50));
+    layout.dispatchTouchEvent(obtain(MotionEvent.ACTION_UP, 75, 50));
+    assertEquals(0, bottom.events.size());
+    assertEquals(0, top.events.size());
+
+    layout.dispatchTouchEvent(obtain(MotionEvent.ACTION_DOWN, 25, 50));
+    assertEquals(0, bottom.events.size());
+    assertEquals(1, top.events.size());
+    assertEquals(MotionEvent.ACTION_DOWN, top.last().getActionMasked());
+  }
+
+  @Test
+  public void testTransformedChild() {
+    top.setTranslationX(SIZE / 2);
+
+    // The left half isn't covered by the top scene anymore
+    layout.dispatchTouchEvent(obtain(MotionEvent.ACTION_DOWN, 25, 50));
+    layout.dispatchTouchEvent(obtain(MotionEvent.ACTION_UP, 25, 50));
+    assertEquals(0, bottom.events.size());
+    assertEquals(0, top.events.size());
+
+    // Mapped into the child
+    layout.dispatchTouchEvent(obtain(MotionEvent.ACTION_DOWN, 75, 50));
+    assertEquals(1, top.events.size());
+    assertEquals(25.0f, top.last().getX(), 0.0f);
+  }
+
+  @Test
+  public void testMultiTouch() {
+    TouchView right = new TouchView(RuntimeEnvironment.application);
+    layout.addView(right);
+    right.layout(SIZE / 2, 0, SIZE, SIZE);
+
+    layout.dispatchTouchEvent(obtain(MotionEvent.ACTION_DOWN, 25, 50));
+    layout.dispatchTouchEvent(obtain(MotionEvent.ACTION_POINTER_DOWN
+        | (1 << MotionEvent.ACTION_POINTER_INDEX_SHIFT), 25, 50, 75, 50));
+    assertEquals(MotionEvent.ACTION_DOWN, right.last().getActionMasked());
+    assertEquals(1, right.last().getPointerCount());
+    assertEquals(1, right.last().getPointerId(0));
+    assertEquals(25.0f, right.last().getX(), 0.0f);
+
+    // Each child gets its own pointer with the history
+    MotionEvent move = obtain(MotionEvent.ACTION_MOVE, 20, 50, 80, 50);
+    move.addBatch(move.getEventTime() + 10,
+        createCoords(22, 50, 78, 50), move.getMetaState());
+    layout.dispatchTouchEvent(move);
+    assertEquals(1, top.last().getPointerCount());
+    assertEquals(1, top.last().getHistorySize());
+    assertEquals(20.0f, top.last().getHistoricalX(0, 0), 0.0f);
+    assertEquals(22.0f, top.last().getX(), 0.0f);
+    assertEquals(1, right.last().getPointerCount());
+    assertEquals(1, right.last().getHistorySize());
+    assertEquals(30.0f, right.last().getHistoricalX(0, 0), 0.0f);
+    assertEquals(28.0f, right.last().getX(), 0.0f);
+
+    layout.dispatchTouchEvent(obtain(MotionEvent.ACTION_POINTER_UP
+        | (1 << MotionEvent.ACTION_POINTER_INDEX_SHIFT), 22, 50, 78, 50));
+    assertEquals(MotionEvent.ACTION_UP, right.last().getActionMasked());
+    assertEquals(0, bottom.events.size());
+  }
+
+  @Test
+  public void testCancelOnCurtain() {
+    layout.dispatchTouchEvent(obtain(MotionEvent.ACTION_DOWN, 25, 50));
+    assertEquals(MotionEvent.ACTION_DOWN, top.last().getActionMasked());
+
+    stage.setCurtainSuppler(new TimingCurtainSuppler());
+    stage.pushScene(new TouchScene());
+    assertTrue(stage.hasCurtainRunning());
+
+    // The rest of the gesture is blocked
+    layout.dispatchTouchEvent(obtain(MotionEvent.ACTION_MOVE, 30, 50));
+    assertEquals(MotionEvent.ACTION_CANCEL, top.last().getActionMasked());
+    int count = top.events.size();
+    layout.dispatchTouchEvent(obtain(MotionEvent.ACTION_MOVE, 35, 50));
+    layout.dispatchTouchEvent(obtain(MotionEvent.ACTION_UP, 35, 50));
+    assertEquals(count, top.events.size());
+    assertEquals(0, bottom.events.size());
+  }
+
+  // Pointer ids are 0, 1, ..., the points are pairs of x and y
+  private static MotionEvent obtain(int action, float... points) {
+    int count = points.length / 2;
+    MotionEvent.PointerProperties[] properties = new MotionEvent.PointerProperties[count];
+    for (int i = 0; i < count; i++) {
+      properties[i] = new MotionEvent.PointerProperties();
+      properties[i].id = i;
+      properties[i].toolType = MotionEvent.TOOL_TYPE_FINGER;
+    }
+    return MotionEvent.obtain(0, 0, action, count, properties, createCoords(points),
+        0, 0, 1.0f, 1.0f, 0, 0, 0, 0);
+  }
+
+  private static MotionEvent.PointerCoords[] createCoords(float... points) {
+    int count = points.length / 2;
+    MotionEvent.PointerCoords[] coords = new MotionEvent.PointerCoords[count];
+    for (int i = 0; i < count; i++) {
+      coords[i] = new MotionEvent.PointerCoords();
+      coords[i].x = points[i * 2];
+      coords[i].y = points[i * 2 + 1];
+    }
+    return coords;
+  }
+
+  public static class TouchScene extends Scene {
+
+    @NonNull
+    @Override
+    protected View onCreateView(@NonNull LayoutInflater inflater, @NonNull ViewGroup container) {
+      return new TouchView(inflater.getContext());
+    }
+  }
+
+  // Takes all touch events, records copies of them
+  private static class TouchView extends View {
+
+    private final List<MotionEvent> events = new ArrayList<>();
+
+    TouchView(Context context) {
+      super(context);
+    }
+
+    MotionEvent last() {
+      return events.get(events.size() - 1);
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+      events.add(MotionEvent.obtain(event));
+      return true;
+    }
+  }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2017 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.stage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.os.Bundle;
+import android.support.annotation.NonNull;
+import android.view.View;
+import com.hippo.stage.util.TestContainer;
+import com.hippo.stage.util.TimingCurtainSuppler;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class StagePostponeCurtainTest {
+
+  private Director director;
+  private Stage stage;
+  private TestContainer container;
+
+  @Before
+  public void before() {
+    director = new DumpDirector();
+    stage = new Stage(director);
+    container = new TestContainer(RuntimeEnvironment.application);
+    stage.setContainer(container);
+    stage.start();
+    stage.resume();
+  }
+
+  @Test
+  public void testStartPostponedCurtain() {
+    stage.pushScene(TestScene.create(1, Scene.OPAQUE, false));
+    PostponeScene scene = new PostponeScene();
+    stage.pushScene(scene);
+
+    assertTrue(stage.hasCurtainRunning());
+    assertEquals(View.INVISIBLE, scene.getView().getVisibility());
+    container.assertChildren(1, 0);
+
+    scene.startPostponedCurtain();
+
+    assertFalse(stage.hasCurtainRunning());
+    assertEquals(View.VISIBLE, scene.getView().getVisibility());
+    container.assertChildren(0);
+  }
+
+  @Test
+  public void testPostponedCurtainTimeout() {
+    stage.pushScene(TestScene.create(1, Scene.OPAQUE, false));
+    PostponeScene scene = new PostponeScene();
+    stage.pushScene(scene);
+    assertTrue(stage.hasCurtainRunning());
+
+    Robolectric.flushForegroundThreadScheduler();
+
+    assertFalse(stage.hasCurtainRunning());
+    assertEquals(View.VISIBLE, scene.getView().getVisibility());
+    container.assertChildren(0);
+  }
+
+  @Test
+  public void testPostponedCurtainWithRunningCurtain() {
+    stage.setCurtainSuppler(new TimingCurtainSuppler());
+    stage.pushScene(TestScene.create(1, Scene.OPAQUE, false));
+    PostponeScene scene = new PostponeScene();
+    stage.pushScene(scene);
+    assertTrue(stage.hasCurtainRunning());
+
+    assertTrue(director.hasCurtainRunning());
+
+    // The postponed curtain is started, the timing curtain is running now
+    scene.startPostponedCurtain();
+    assertTrue(stage.hasCurtainRunning());
+    assertTrue(director.hasCurtainRunning());
+
+    stage.completeRunningCurtain();
+    assertFalse(stage.hasCurtainRunning());
+    assertFalse(director.hasCurtainRunning());
+    container.assertChildren(0);
+  }
+
+  @Test
+  public void testPopPostponedScene() {
+    stage.pushScene(TestScene.create(1, Scene.OPAQUE, false));
+    PostponeScene scene = new PostponeScene();
+    stage.pushScene(scene);
+    assertTrue(stage.hasCurtainRunning());
+
+    scene.pop();
+
+    assertFalse(stage.hasCurtainRunning());
+    assertTrue(scene.getLifecycleState().hasDestroyed());
+    container.assertChildren(1);
+  }
+
+  @Test
+  public void testPostponedCurtainKeepsVisibility() {
+    stage.pushScene(TestScene.create(1, Scene.OPAQUE, false));
+    PostponeScene scene = new GonePostponeScene();
+    stage.pushScene(scene);
+    assertEquals(View.INVISIBLE, scene.getView().getVisibility());
+
+    // The visibility set in onAttachView() is restored
+    scene.startPostponedCurtain();
+    assertEquals(View.GONE, scene.getView().getVisibility());
+  }
+
+  public static class PostponeScene extends TestScene {
+
+    @Override
+    protected void onCreate(@NonNull Bundle args) {
+      super.onCreate(args);
+      postponeCurtain(1000);
+    }
+  }
+
+  public static class GonePostponeScene extends PostponeScene {
+
+    @Override
+    protected void onAttachView(@NonNull View view) {
+      super.onAttachView(view);
+      view.setVisibility(View.GONE);
+    }
+  }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2017 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.stage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import android.os.Bundle;
+import android.support.annotation.NonNull;
+import com.hippo.stage.util.TestContainer;
+import java.util.concurrent.CountDownLatch;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class StagePrepareTest {
+
+  private Director director;
+  private Stage stage;
+
+  @Before
+  public void before() {
+    director = new DumpDirector();
+    stage = new Stage(director);
+    stage.setContainer(new TestContainer(RuntimeEnvironment.application));
+  }
+
+  // Waits for onPrepare() in background, then runs the posted result on main thread
+  private static void waitForCreated(Scene scene) throws InterruptedException {
+    for (int i = 0; i < 500 && !scene.getLifecycleState().hasCreated(); i++) {
+      Thread.sleep(10);
+      ShadowLooper.runUiThreadTasks();
+    }
+  }
+
+  @Test
+  public void testPrepare() throws InterruptedException {
+    PrepareScene scene = new PrepareScene();
+    stage.pushScene(scene);
+    assertEquals(0, stage.getSceneCount());
+
+    waitForCreated(scene);
+    assertEquals(1, stage.getSceneCount());
+    assertEquals(PrepareScene.RESULT, scene.getResult());
+    // onPrepare() gets a copy of args
+    assertFalse(scene.createArgs.containsKey(PrepareScene.KEY_PREPARED));
+  }
+
+  @Test
+  public void testPrepareError() throws InterruptedException {
+    PrepareScene scene = new PrepareScene();
+    scene.error = new RuntimeException("Test");
+    stage.pushScene(scene);
+
+    // Pushed without a result
+    waitForCreated(scene);
+    assertEquals(1, stage.getSceneCount());
+    assertNull(scene.getResult());
+  }
+
+  @Test
+  public void testPrepareTimeout() {
+    PrepareScene scene = new PrepareScene(true);
+    scene.timeout = 10;
+    stage.pushScene(scene);
+    assertEquals(0, stage.getSceneCount());
+
+    Robolectric.flushForegroundThreadScheduler();
+    assertEquals(1, stage.getSceneCount());
+    assertNull(scene.getResult());
+    scene.latch.countDown();
+  }
+
+  @Test
+  public void testPopWhilePreparing() {
+    PrepareScene scene = new PrepareScene(true);
+    stage.pushScene(scene);
+    scene.pop();
+    scene.latch.countDown();
+
+    // Not delayed by the cancelled one
+    stage.pushScene(new TestScene());
+    assertEquals(1, stage.getSceneCount());
+    assertFalse(scene.getLifecycleState().hasCreated());
+  }
+
+  @Test
+  public void testSaveWhilePreparing() throws InterruptedException {
+    stage.pushScene(TestScene.create(1, Scene.OPAQUE, false));
+    PrepareScene scene = new PrepareScene(true);
+    Bundle args = new Bundle();
+    args.putString("key", "value");
+    scene.setArgs(args);
+    scene.setTag("prepare");
+    stage.pushScene(scene);
+    stage.pushScene(TestScene.create(2, Scene.OPAQUE, false));
+    stage.popScene(stage.findSceneByTag("1"));
+    assertEquals(1, stage.getSceneCount());
+
+    // The preparing scene and the delayed operations are saved, but not operated
+    Bundle state = new Bundle();
+    stage.saveInstanceState(state);
+    assertEquals(1, stage.getSceneCount());
+    assertFalse(scene.getLifecycleState().hasCreated());
+
+    // The preparation goes on
+    scene.latch.countDown();
+    waitForCreated(scene);
+    assertEquals(PrepareScene.RESULT, scene.getResult());
+    assertEquals(2, stage.getSceneCount());
+
+    Stage newStage = new Stage(director);
+    newStage.restoreInstanceState(state);
+    assertEquals(2, newStage.getSceneCount());
+    assertNull(newStage.findSceneByTag("1"));
+    assertNotNull(newStage.findSceneByTag("2"));
+    PrepareScene newScene = (PrepareScene) newStage.getRootScene();
+    assertEquals("prepare", newScene.getTag());
+    assertEquals("value", newScene.createArgs.getString("key"));
+    // Not prepared after restoring
+    assertNull(newScene.getResult());
+  }
+
+  public static class PrepareScene extends TestScene {
+
+    static final String RESULT = "result";
+    static final String KEY_PREPARED = "prepared";
+
+    final CountDownLatch latch;
+    long timeout = 5000;
+    volatile RuntimeException error;
+    Bundle createArgs;
+
+    public PrepareScene() {
+      this(false);
+    }
+
+    // Holds onPrepare() until the latch is counted down
+    PrepareScene(boolean hold) {
+      latch = new CountDownLatch(hold ? 1 : 0);
+    }
+
+    @Override
+    protected boolean willPrepare() {
+      return true;
+    }
+
+    @Override
+    protected long getPrepareTimeout() {
+      return timeout;
+    }
+
+    @Override
+    protected Object onPrepare(@NonNull Bundle args) {
+      args.putBoolean(KEY_PREPARED, true);
+      try {
+        latch.await();
+      } catch (InterruptedException e) {
+        return null;
+      }
+      if (error != null) {
+        throw error;
+      }
+      return RESULT;
+    }
+
+    @Override
+    protected void onCreate(@NonNull Bundle args) {
+      super.onCreate(args);
+      createArgs = args;
+    }
+
+    Object getResult() {
+      return getPreparedResult();
+    }
+  }
+}
@@ -22,16 +22,25 @@ package com.hippo.stage;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import android.content.pm.ActivityInfo;
 import android.os.Bundle;
+import android.os.Parcel;
 import android.support.annotation.NonNull;
 import android.view.LayoutInflater;
+import android.view.SurfaceView;
 import android.view.View;
 import android.view.ViewGroup;
+import com.hippo.stage.curtain.PropertySlideCurtain;
+import com.hippo.stage.curtain.ShiftCurtain;
 import com.hippo.stage.util.TestContainer;
 import com.hippo.stage.util.TestView;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -282,4 +291,469 @@ public class StageTest {
 
     stage.pushScene(scene);
   }
+
+  @Test
+  public void testSetVisible() {
+    Scene scene1 = TestScene.create(1, Scene.OPAQUE, false);
+    Scene scene2 = TestScene.create(2, Scene.TRANSPARENT, false);
+    stage.pushScene(scene1);
+    stage.pushScene(scene2);
+
+    stage.setVisible(false);
+    stage.start();
+    stage.resume();
+    assertTrue(scene1.getLifecycleState().isViewAttached());
+    assertTrue(scene2.getLifecycleState().isViewAttached());
+    assertFalse(scene1.getLifecycleState().isStarted());
+    assertFalse(scene2.getLifecycleState().isStarted());
+
+    stage.setVisible(true);
+    assertTrue(scene1.getLifecycleState().isStarted());
+    assertFalse(scene1.getLifecycleState().isResumed());
+    assertTrue(scene2.getLifecycleState().isResumed());
+
+    stage.setVisible(false);
+    assertFalse(scene1.getLifecycleState().isStarted());
+    assertFalse(scene2.getLifecycleState().isStarted());
+    assertTrue(scene2.getLifecycleState().isViewAttached());
+
+    // Lifecycle of the host is still tracked
+    stage.pause();
+    stage.stop();
+    stage.setVisible(true);
+    assertFalse(scene2.getLifecycleState().isStarted());
+  }
+
+  @Test
+  public void testCoveredScene() {
+    Scene scene1 = TestScene.create(1, Scene.OPAQUE, false);
+    Scene scene2 = TestScene.create(2, Scene.TRANSPARENT, false);
+    stage.pushScene(scene1);
+    stage.pushScene(scene2);
+
+    View view1 = scene1.getView();
+    View view2 = scene2.getView();
+    assertEquals(View.IMPORTANT_FOR_ACCESSIBILITY_NO_HIDE_DESCENDANTS,
+        view1.getImportantForAccessibility());
+    assertEquals(View.IMPORTANT_FOR_ACCESSIBILITY_AUTO, view2.getImportantForAccessibility());
+
+    stage.popTopScene();
+    assertEquals(View.IMPORTANT_FOR_ACCESSIBILITY_AUTO, view1.getImportantForAccessibility());
+  }
+
+  @Test
+  public void testKeepViewAcrossRecreation() {
+    TestScene scene1 = new TestScene() {
+      @Override
+      protected int getHandledConfigChanges() {
+        return ActivityInfo.CONFIG_ORIENTATION;
+      }
+    };
+    TestScene scene2 = TestScene.create(2, Scene.TRANSPARENT, false);
+    stage.pushScene(scene1);
+    stage.pushScene(scene2);
+
+    // The activity is recreated for other configuration changes
+    stage.detach(false, ActivityInfo.CONFIG_ORIENTATION | ActivityInfo.CONFIG_LOCALE);
+    assertNull(scene1.getView());
+    stage.setContainer(new TestContainer(RuntimeEnvironment.application));
+    assertEquals(2, scene1.copyCalling().onCreateView);
+    View view1 = scene1.getView();
+
+    stage.detach(false, ActivityInfo.CONFIG_ORIENTATION);
+    assertTrue(view1 == scene1.getView());
+    assertNull(scene2.getView());
+
+    stage.setContainer(new TestContainer(RuntimeEnvironment.application));
+    assertTrue(view1 == scene1.getView());
+    assertTrue(scene1.getLifecycleState().isViewAttached());
+    assertEquals(2, scene1.copyCalling().onCreateView);
+    assertEquals(3, scene1.copyCalling().onAttachView);
+  }
+
+  @Test
+  public void testLazyRestore() {
+    stage.pushScene(TestScene.create(1, Scene.OPAQUE, false));
+    stage.pushScene(TestScene.create(2, Scene.OPAQUE, false));
+    stage.pushScene(TestScene.create(3, Scene.TRANSPARENT, false));
+    Bundle state = new Bundle();
+    stage.saveInstanceState(state);
+
+    final int[] created = new int[1];
+    director.addLifecycleListener(new Scene.LifecycleListener() {
+      @Override
+      public void onCreate(@NonNull Scene scene, @NonNull Bundle args) {
+        created[0]++;
+      }
+    }, Scene.LifecycleListener.EVENT_CREATE);
+
+    Stage newStage = new Stage(director);
+    newStage.restoreInstanceState(state);
+    // Only visible scenes are created
+    assertEquals(3, newStage.getSceneCount());
+    assertEquals(2, created[0]);
+
+    // Saved state of the scene not created is kept
+    Bundle newState = new Bundle();
+    newStage.saveInstanceState(newState);
+    newStage = new Stage(director);
+    newStage.restoreInstanceState(newState);
+    assertEquals(4, created[0]);
+
+    assertEquals("1", newStage.findSceneByTag("1").getTag());
+    assertEquals(5, created[0]);
+  }
+
+  @Test
+  public void testCompactSavedState() {
+    for (int i = 1; i <= 20; i++) {
+      stage.pushScene(TestScene.create(i, i % 2 == 0 ? Scene.TRANSLUCENT : Scene.OPAQUE, i == 3));
+    }
+    Bundle state = new Bundle();
+    stage.saveInstanceState(state);
+    director.setCompactSavedState(true);
+    Bundle compactState = new Bundle();
+    stage.saveInstanceState(compactState);
+    assertTrue(getParcelSize(compactState) < getParcelSize(state));
+
+    Stage newStage = new Stage(director);
+    newStage.restoreInstanceState(compactState);
+    assertEquals(20, newStage.getSceneCount());
+    Scene scene = newStage.findSceneByTag("3");
+    assertEquals(Scene.OPAQUE, scene.getOpacity());
+    assertTrue(scene.willRetainView());
+    assertEquals(Scene.TRANSLUCENT, newStage.findSceneByTag("20").getOpacity());
+
+    // The legacy saved state of the scene not created is written back compact
+    newStage = new Stage(director);
+    newStage.restoreInstanceState(state);
+    Bundle newState = new Bundle();
+    newStage.saveInstanceState(newState);
+    newStage = new Stage(director);
+    newStage.restoreInstanceState(newState);
+    assertEquals("1", newStage.findSceneByTag("1").getTag());
+
+    // Re-encoded both ways without restoring the scene
+    Scene scene3 = newStage.findSceneByTag("3");
+    Bundle legacy = scene3.saveInstanceState(false);
+    Bundle compact = Scene.encodeSavedState(legacy, true);
+    assertTrue(getParcelSize(compact) < getParcelSize(legacy));
+    for (Bundle bundle : Arrays.asList(compact, Scene.encodeSavedState(compact, false))) {
+      assertEquals(scene3.getId(), Scene.getSavedId(bundle));
+      assertEquals("3", Scene.getSavedTag(bundle));
+      assertEquals(Scene.OPAQUE, Scene.getSavedOpacity(bundle));
+      Scene newScene = Scene.newInstance(TestScene.class.getName(), bundle);
+      assertTrue(newScene.willRetainView());
+    }
+  }
+
+  @Test
+  public void testIncrementalSavedState() {
+    final int[] updated = new int[1];
+    director.addLifecycleListener(new Scene.LifecycleListener() {
+      @Override
+      public void onUpdateArgs(@NonNull Scene scene, @NonNull Bundle args) {
+        updated[0]++;
+      }
+    }, Scene.LifecycleListener.EVENT_UPDATE_ARGS);
+
+    // Saved every time in default
+    Scene defaultScene = new TestScene();
+    stage.pushScene(defaultScene);
+    stage.saveInstanceState(new Bundle());
+    stage.saveInstanceState(new Bundle());
+    assertEquals(2, updated[0]);
+    stage.popScene(defaultScene);
+    updated[0] = 0;
+
+    Scene scene = new ReuseScene();
+    stage.pushScene(scene);
+    stage.saveInstanceState(new Bundle());
+    assertEquals(1, updated[0]);
+
+    // Nothing changed
+    Bundle state = new Bundle();
+    stage.saveInstanceState(state);
+    assertEquals(1, updated[0]);
+
+    scene.invalidateSavedState();
+    stage.saveInstanceState(new Bundle());
+    assertEquals(2, updated[0]);
+
+    // The reused state is still restorable
+    Stage newStage = new Stage(director);
+    newStage.restoreInstanceState(state);
+    assertEquals(1, newStage.getSceneCount());
+  }
+
+  @Test
+  public void testSavedStateWhileResumed() {
+    stage.start();
+    stage.resume();
+    TestScene scene = new ReuseScene();
+    stage.pushScene(scene);
+    assertTrue(scene.getLifecycleState().isResumed());
+    stage.saveInstanceState(new Bundle());
+
+    // Changed while resumed
+    scene.setSavedKey(1001);
+    Bundle state = new Bundle();
+    stage.saveInstanceState(state);
+    assertEquals(1001, getRestoredSavedKey(state));
+
+    // Changed after the last save, then paused
+    scene.setSavedKey(1002);
+    stage.pause();
+    state = new Bundle();
+    stage.saveInstanceState(state);
+    assertEquals(1002, getRestoredSavedKey(state));
+  }
+
+  private int getRestoredSavedKey(Bundle state) {
+    Stage newStage = new Stage(director);
+    newStage.restoreInstanceState(state);
+    newStage.setContainer(new TestContainer(RuntimeEnvironment.application));
+    return ((TestScene) newStage.getTopScene()).getSavedKey();
+  }
+
+  @Test
+  public void testArgsHandle() {
+    Bundle data = new Bundle();
+    Bundle args1 = new Bundle();
+    ArgsHandle.put(args1, "data", data);
+    // Shares the handle
+    Bundle args2 = new Bundle(args1);
+
+    Scene scene1 = new TestScene();
+    scene1.setArgs(args1);
+    Scene scene2 = new TestScene();
+    scene2.setArgs(args2);
+    stage.pushScene(scene1);
+    stage.pushScene(scene2);
+    // Passed by reference
+    assertTrue(data == ArgsHandle.get(args2, "data"));
+
+    // Parcelled only if the args is parcelled
+    Parcel parcel = Parcel.obtain();
+    parcel.writeBundle(args1);
+    parcel.setDataPosition(0);
+    Bundle parcelledArgs = parcel.readBundle(getClass().getClassLoader());
+    parcel.recycle();
+    assertNotNull(ArgsHandle.get(parcelledArgs, "data"));
+
+    stage.popTopScene();
+    assertTrue(data == ArgsHandle.get(args1, "data"));
+    // Released if no scene holds it
+    stage.popTopScene();
+    assertNull(ArgsHandle.get(args1, "data"));
+  }
+
+  @Test
+  public void testSceneState() {
+    StateScene scene = new StateScene();
+    stage.pushScene(scene);
+    scene.count = 3;
+    scene.name = "name";
+    scene.tags = new ArrayList<>(Arrays.asList("a", "b"));
+    scene.scroll = 0.5f;
+
+    Bundle state = new Bundle();
+    stage.saveInstanceState(state);
+
+    Stage newStage = new Stage(director);
+    newStage.restoreInstanceState(state);
+    newStage.setContainer(new TestContainer(RuntimeEnvironment.application));
+    StateScene newScene = (StateScene) newStage.getTopScene();
+    assertNotNull(newScene);
+    assertEquals(3, newScene.count);
+    assertEquals("name", newScene.name);
+    assertEquals(Arrays.asList("a", "b"), newScene.tags);
+    assertEquals(0.5f, newScene.scroll, 0.0f);
+  }
+
+  @Test
+  public void testSnapshotCurtain() {
+    Stage stage = new Stage(director);
+    TestContainer container = new TestContainer(RuntimeEnvironment.application);
+    stage.setContainer(container);
+    stage.setCurtainSuppler(new SnapshotCurtainSuppler());
+
+    Scene scene1 = new TestScene();
+    Scene scene2 = new TestScene();
+    stage.pushScene(scene1);
+    stage.pushScene(scene2);
+    stage.completeRunningCurtain();
+    container.measure(View.MeasureSpec.makeMeasureSpec(100, View.MeasureSpec.EXACTLY),
+        View.MeasureSpec.makeMeasureSpec(100, View.MeasureSpec.EXACTLY));
+    container.layout(0, 0, 100, 100);
+
+    // The view of the popped scene is destroyed when the curtain starts
+    stage.popTopScene();
+    assertTrue(stage.hasCurtainRunning());
+    assertNull(scene2.getView());
+    assertEquals(1, container.getChildCount());
+
+    stage.completeRunningCurtain();
+    assertFalse(stage.hasCurtainRunning());
+    assertEquals(1, container.getChildCount());
+  }
+
+  @Test
+  public void testSnapshotCurtainWithSurface() {
+    Stage stage = new Stage(director);
+    TestContainer container = new TestContainer(RuntimeEnvironment.application);
+    stage.setContainer(container);
+    stage.setCurtainSuppler(new SnapshotCurtainSuppler());
+
+    TestScene scene1 = new TestScene();
+    TestScene scene2 = new TestScene();
+    stage.pushScene(scene1);
+    stage.pushScene(scene2);
+    stage.completeRunningCurtain();
+    scene2.getView().addView(new SurfaceView(RuntimeEnvironment.application));
+    container.measure(View.MeasureSpec.makeMeasureSpec(100, View.MeasureSpec.EXACTLY),
+        View.MeasureSpec.makeMeasureSpec(100, View.MeasureSpec.EXACTLY));
+    container.layout(0, 0, 100, 100);
+
+    // The content of SurfaceView can't be snapshotted, the real view is animated
+    stage.popTopScene();
+    assertTrue(stage.hasCurtainRunning());
+    assertNotNull(scene2.getView());
+    assertEquals(2, container.getChildCount());
+
+    stage.completeRunningCurtain();
+    assertNull(scene2.getView());
+    assertEquals(1, container.getChildCount());
+  }
+
+  @Test
+  public void testPropertyCurtain() {
+    Stage stage = new Stage(director);
+    TestContainer container = new TestContainer(RuntimeEnvironment.application);
+    stage.setContainer(container);
+    stage.setCurtainSuppler(new CurtainSuppler() {
+      @Override
+      public Curtain getCurtain(@NonNull SceneInfo upper, @NonNull List<SceneInfo> lower) {
+        return new PropertySlideCurtain();
+      }
+    });
+
+    Scene scene1 = new TestScene();
+    Scene scene2 = TestScene.create(2, Scene.TRANSPARENT, false);
+    stage.pushScene(scene1);
+    stage.pushScene(scene2);
+    // Waiting for layout
+    assertTrue(stage.hasCurtainRunning());
+    stage.completeRunningCurtain();
+    assertFalse(stage.hasCurtainRunning());
+    container.measure(View.MeasureSpec.makeMeasureSpec(100, View.MeasureSpec.EXACTLY),
+        View.MeasureSpec.makeMeasureSpec(100, View.MeasureSpec.EXACTLY));
+    container.layout(0, 0, 100, 100);
+
+    // Animating
+    View view = scene2.getView();
+    stage.popTopScene();
+    assertTrue(stage.hasCurtainRunning());
+    assertEquals(2, container.getChildCount());
+
+    stage.completeRunningCurtain();
+    assertFalse(stage.hasCurtainRunning());
+    assertEquals(1, container.getChildCount());
+    assertEquals(0.0f, view.getTranslationX(), 0.0f);
+  }
+
+  @Test
+  public void testHardwareLayerCurtain() {
+    Stage stage = new Stage(director);
+    TestContainer container = new TestContainer(RuntimeEnvironment.application);
+    stage.setContainer(container);
+    stage.setCurtainSuppler(new CurtainSuppler() {
+      @Override
+      public Curtain getCurtain(@NonNull SceneInfo upper, @NonNull List<SceneInfo> lower) {
+        return new ShiftCurtain();
+      }
+    });
+
+    Scene scene1 = new LayerScene();
+    Scene scene2 = new LayerScene();
+    stage.pushScene(scene1);
+    stage.pushScene(scene2);
+    stage.completeRunningCurtain();
+    container.measure(View.MeasureSpec.makeMeasureSpec(100, View.MeasureSpec.EXACTLY),
+        View.MeasureSpec.makeMeasureSpec(100, View.MeasureSpec.EXACTLY));
+    container.layout(0, 0, 100, 100);
+
+    // A view which already has a layer isn't changed
+    View view1 = scene1.getView();
+    View view2 = scene2.getView();
+    view1.setLayerType(View.LAYER_TYPE_SOFTWARE, null);
+    stage.popTopScene();
+    assertTrue(stage.hasCurtainRunning());
+    assertEquals(View.LAYER_TYPE_SOFTWARE, view1.getLayerType());
+    assertEquals(View.LAYER_TYPE_HARDWARE, view2.getLayerType());
+
+    stage.completeRunningCurtain();
+    assertFalse(stage.hasCurtainRunning());
+    assertEquals(View.LAYER_TYPE_SOFTWARE, view1.getLayerType());
+    assertEquals(View.LAYER_TYPE_NONE, view2.getLayerType());
+  }
+
+  private static int getParcelSize(Bundle bundle) {
+    Parcel parcel = Parcel.obtain();
+    try {
+      parcel.writeBundle(bundle);
+      return parcel.dataSize();
+    } finally {
+      parcel.recycle();
+    }
+  }
+
+  private static class SnapshotCurtainSuppler implements CurtainSuppler {
+
+    @Override
+    public Curtain getCurtain(@NonNull SceneInfo upper, @NonNull List<SceneInfo> lower) {
+      return new Curtain() {
+        private ViewGroup container;
+        private SceneInfo snapshot;
+        private OnCompleteListener listener;
+
+        @Override
+        protected void completeImmediately() {
+          clearSnapshot(container, snapshot);
+          listener.onComplete();
+        }
+
+        @Override
+        protected void execute(@NonNull ViewGroup container, @NonNull SceneInfo upper,
+            @NonNull List<SceneInfo> lower, @NonNull OnCompleteListener listener) {
+          this.container = container;
+          this.snapshot = snapshot(container, upper);
+          this.listener = listener;
+        }
+      };
+    }
+  }
+
+  // Robolectric views aren't hardware accelerated
+  public static class LayerScene extends TestScene {
+
+    @NonNull
+    @Override
+    protected View onCreateView(@NonNull LayoutInflater inflater, @NonNull ViewGroup container) {
+      return new TestView(inflater.getContext()) {
+        @Override
+        public boolean isHardwareAccelerated() {
+          return true;
+        }
+      };
+    }
+  }
+
+  public static class ReuseScene extends TestScene {
+
+    @Override
+    protected boolean willReuseSavedState() {
+      return true;
+    }
+  }
 }
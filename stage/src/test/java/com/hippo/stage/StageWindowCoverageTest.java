@@ -0,0 +1,149 @@
+/*
+ * Copyright 2017 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.stage;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.graphics.Color;
+import android.graphics.drawable.ColorDrawable;
+import android.support.annotation.NonNull;
+import android.view.View;
+import android.widget.FrameLayout;
+import com.hippo.stage.util.TestContainer;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class StageWindowCoverageTest {
+
+  private static final int SIZE = 100;
+
+  private CoverageDirector director;
+  private FrameLayout content;
+  private Stage stage;
+
+  @Before
+  public void before() {
+    director = new CoverageDirector();
+    content = new FrameLayout(RuntimeEnvironment.application);
+    content.setId(android.R.id.content);
+    TestContainer container = new TestContainer(RuntimeEnvironment.application);
+    content.addView(container);
+    stage = new Stage(director);
+    stage.setContainer(container);
+    stage.setClearsWindowBackground(true);
+  }
+
+  private void layout() {
+    int spec = View.MeasureSpec.makeMeasureSpec(SIZE, View.MeasureSpec.EXACTLY);
+    content.measure(spec, spec);
+    content.layout(0, 0, SIZE, SIZE);
+  }
+
+  @Test
+  public void testBackground() {
+    TestScene scene = TestScene.create(0, Scene.OPAQUE, false);
+    stage.pushScene(scene);
+    layout();
+    assertFalse(director.covered);
+
+    // Background changes aren't tracked
+    scene.getView().setBackgroundDrawable(new ColorDrawable(Color.WHITE));
+    assertFalse(director.covered);
+    stage.invalidateWindowCoverage();
+    assertTrue(director.covered);
+
+    scene.getView().setBackgroundDrawable(null);
+    stage.invalidateWindowCoverage();
+    assertFalse(director.covered);
+  }
+
+  @Test
+  public void testBounds() {
+    TestScene scene = TestScene.create(0, Scene.OPAQUE, false);
+    stage.pushScene(scene);
+    View view = scene.getView();
+    view.setBackgroundDrawable(new ColorDrawable(Color.WHITE));
+    layout();
+    assertTrue(director.covered);
+
+    // Layout changes of the top view are tracked
+    view.layout(0, 0, SIZE / 2, SIZE);
+    assertFalse(director.covered);
+    view.layout(0, 0, SIZE, SIZE);
+    assertTrue(director.covered);
+  }
+
+  @Test
+  public void testTopSceneChanged() {
+    TestScene scene1 = TestScene.create(1, Scene.OPAQUE, true);
+    stage.pushScene(scene1);
+    View view1 = scene1.getView();
+    view1.setBackgroundDrawable(new ColorDrawable(Color.WHITE));
+    layout();
+    assertTrue(director.covered);
+
+    TestScene scene2 = TestScene.create(2, Scene.OPAQUE, false);
+    stage.pushScene(scene2);
+    layout();
+    assertFalse(director.covered);
+
+    // Only the top view is tracked
+    view1.layout(0, 0, SIZE / 2, SIZE);
+    view1.layout(0, 0, SIZE, SIZE);
+    assertFalse(director.covered);
+
+    stage.popScene(scene2);
+    layout();
+    assertTrue(director.covered);
+    view1.layout(0, 0, SIZE / 2, SIZE);
+    assertFalse(director.covered);
+  }
+
+  @Test
+  public void testStopTracking() {
+    TestScene scene = TestScene.create(0, Scene.OPAQUE, false);
+    stage.pushScene(scene);
+    View view = scene.getView();
+    view.setBackgroundDrawable(new ColorDrawable(Color.WHITE));
+    layout();
+    assertTrue(director.covered);
+
+    stage.setClearsWindowBackground(false);
+    assertFalse(director.covered);
+    view.layout(0, 0, SIZE / 2, SIZE);
+    view.layout(0, 0, SIZE, SIZE);
+    stage.invalidateWindowCoverage();
+    assertFalse(director.covered);
+  }
+
+  private static class CoverageDirector extends DumpDirector {
+
+    private boolean covered;
+
+    @Override
+    void setWindowCovered(@NonNull Stage stage, boolean covered) {
+      this.covered = covered;
+    }
+  }
+}